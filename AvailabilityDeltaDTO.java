@@ -0,0 +1,28 @@
+package com.dsoft.m2u.api.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class AvailabilityDeltaDTO {
+
+	private String facilityId;
+
+	private String date;
+
+	/** Increases by one with every delta sent for the facility and date. */
+	private long version;
+
+	/** Times that can be booked again. */
+	private List<TimeResDTO> added;
+
+	/** Times that are no longer bookable. */
+	private List<String> removed;
+}
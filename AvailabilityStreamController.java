@@ -0,0 +1,31 @@
+package com.dsoft.m2u.api.controller;
+
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.dsoft.m2u.service.AvailabilityStreamService;
+
+@RestController
+@RequestMapping("/api/mobile/availability")
+public class AvailabilityStreamController {
+
+	private static final Logger logger = LogManager.getLogger(AvailabilityStreamController.class);
+
+	@Autowired
+	private AvailabilityStreamService availabilityStreamService;
+
+	@GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter stream(@RequestParam("date") String date, @RequestParam("facilityId") String facilityId) throws IOException {
+		logger.info("AvailabilityStreamController.stream");
+		return availabilityStreamService.subscribe(date, facilityId);
+	}
+}
@@ -0,0 +1,244 @@
+package com.dsoft.m2u.service;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.dsoft.m2u.api.dto.AvailabilityDeltaDTO;
+import com.dsoft.m2u.api.dto.MobileTimeResDTO;
+import com.dsoft.m2u.api.dto.TimeResDTO;
+import com.dsoft.m2u.event.SlotAvailabilityChangedEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+/**
+ * [Description]: Streams bookable times of a facility and date to mobile clients.<br>
+ * [ Remarks ]: A subscriber first receives the full {@link MobileTimeResDTO}
+ * as a "snapshot" event, then "delta" events listing the times that became
+ * bookable or were taken. Changes are collected per facility and date and
+ * flushed every {@code stream.availability.flush-ms}: the times are computed
+ * and serialized once per key and the same payload is written to every
+ * subscriber of that key. A new subscriber of a key that is already streamed
+ * gets the times of the channel's current version as its snapshot, so the
+ * event id and the payload always agree. All keys are resynced periodically to pick up
+ * changes from other nodes and times that have passed.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ *
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Service
+public class AvailabilityStreamService {
+
+	private static final Logger logger = LogManager.getLogger(AvailabilityStreamService.class);
+
+	@Autowired
+	private OrderService orderService;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${stream.availability.timeout-ms:600000}")
+	private long timeoutMs;
+
+	private final ConcurrentMap<StreamKey, Channel> channels = new ConcurrentHashMap<>();
+
+	private final Set<StreamKey> dirty = ConcurrentHashMap.newKeySet();
+
+	private static final class Channel {
+
+		private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+		/** Bookable times by start time, as last sent. Guarded by the channel. */
+		private Map<String, TimeResDTO> times;
+		private long version;
+	}
+
+	public SseEmitter subscribe(String dateInput, String facilityId) throws IOException {
+		StreamKey key = new StreamKey(facilityId, LocalDate.parse(dateInput));
+		MobileTimeResDTO snapshot = orderService.getStartAndEndTimeByDate(dateInput, facilityId);
+		SseEmitter emitter = new SseEmitter(timeoutMs);
+		while (true) {
+			Channel channel = channels.computeIfAbsent(key, k -> new Channel());
+			synchronized (channel) {
+				if (channels.get(key) != channel) {
+					// removed by the last unsubscribe in the meantime
+					continue;
+				}
+				MobileTimeResDTO sent = snapshot;
+				if (channel.times == null) {
+					channel.times = index(snapshot);
+				} else {
+					// send the times of the channel's version, so deltas apply on top of
+					// them; anything newer in the fresh snapshot goes out as a delta
+					sent = copyOf(snapshot, channel.times);
+					dirty.add(key);
+				}
+				emitter.send(SseEmitter.event().name("snapshot").id(String.valueOf(channel.version)).data(sent));
+				channel.emitters.add(emitter);
+			}
+			Runnable unsubscribe = () -> remove(key, channel, emitter);
+			emitter.onCompletion(unsubscribe);
+			emitter.onTimeout(unsubscribe);
+			emitter.onError(e -> unsubscribe.run());
+			return emitter;
+		}
+	}
+
+	@EventListener
+	public void onAvailabilityChanged(SlotAvailabilityChangedEvent event) {
+		StreamKey key = new StreamKey(event.getFacilityId(), event.getDate());
+		if (channels.containsKey(key)) {
+			dirty.add(key);
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${stream.availability.flush-ms:500}")
+	public void flush() {
+		for (Iterator<StreamKey> it = dirty.iterator(); it.hasNext();) {
+			StreamKey key = it.next();
+			it.remove();
+			Channel channel = channels.get(key);
+			if (channel != null) {
+				try {
+					publishDelta(key, channel);
+				} catch (RuntimeException e) {
+					logger.warn("AvailabilityStreamService.flush: cannot refresh {} {}", key.facilityId, key.date, e);
+				}
+			}
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${stream.availability.resync-ms:30000}")
+	public void resync() {
+		LocalDate today = LocalDate.now();
+		for (Map.Entry<StreamKey, Channel> entry : channels.entrySet()) {
+			if (entry.getKey().date.isBefore(today)) {
+				entry.getValue().emitters.forEach(SseEmitter::complete);
+				continue;
+			}
+			dirty.add(entry.getKey());
+			for (SseEmitter emitter : entry.getValue().emitters) {
+				try {
+					emitter.send(SseEmitter.event().comment("keep-alive"));
+				} catch (IOException | IllegalStateException e) {
+					remove(entry.getKey(), entry.getValue(), emitter);
+				}
+			}
+		}
+	}
+
+	public int getSubscriberCount() {
+		int count = 0;
+		for (Channel channel : channels.values()) {
+			count += channel.emitters.size();
+		}
+		return count;
+	}
+
+	private void publishDelta(StreamKey key, Channel channel) {
+		Map<String, TimeResDTO> current = index(orderService.getStartAndEndTimeByDate(key.date.toString(), key.facilityId));
+		synchronized (channel) {
+			List<TimeResDTO> added = new ArrayList<>();
+			for (Map.Entry<String, TimeResDTO> time : current.entrySet()) {
+				TimeResDTO previous = channel.times.get(time.getKey());
+				if (previous == null || !Objects.equals(previous.getPrice(), time.getValue().getPrice())) {
+					added.add(time.getValue());
+				}
+			}
+			List<String> removed = new ArrayList<>();
+			for (String time : channel.times.keySet()) {
+				if (!current.containsKey(time)) {
+					removed.add(time);
+				}
+			}
+			if (added.isEmpty() && removed.isEmpty()) {
+				return;
+			}
+			channel.times = current;
+			channel.version++;
+			String payload;
+			try {
+				payload = objectMapper.writeValueAsString(new AvailabilityDeltaDTO(key.facilityId, key.date.toString(), channel.version, added, removed));
+			} catch (JsonProcessingException e) {
+				throw new IllegalStateException(e);
+			}
+			SseEmitter.SseEventBuilder event = SseEmitter.event().name("delta").id(String.valueOf(channel.version)).data(payload);
+			for (SseEmitter emitter : channel.emitters) {
+				try {
+					emitter.send(event);
+				} catch (IOException | IllegalStateException e) {
+					remove(key, channel, emitter);
+				}
+			}
+		}
+	}
+
+	private void remove(StreamKey key, Channel channel, SseEmitter emitter) {
+		synchronized (channel) {
+			channel.emitters.remove(emitter);
+			if (channel.emitters.isEmpty()) {
+				channels.remove(key, channel);
+			}
+		}
+	}
+
+	private static MobileTimeResDTO copyOf(MobileTimeResDTO response, Map<String, TimeResDTO> times) {
+		MobileTimeResDTO copy = new MobileTimeResDTO();
+		copy.setStep(response.getStep());
+		copy.setTimes(new ArrayList<>(times.values()));
+		return copy;
+	}
+
+	private static Map<String, TimeResDTO> index(MobileTimeResDTO response) {
+		Map<String, TimeResDTO> times = new LinkedHashMap<>();
+		for (TimeResDTO time : response.getTimes()) {
+			times.put(time.getTime(), time);
+		}
+		return times;
+	}
+
+	private static final class StreamKey {
+
+		private final String facilityId;
+		private final LocalDate date;
+
+		private StreamKey(String facilityId, LocalDate date) {
+			this.facilityId = facilityId;
+			this.date = date;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof StreamKey)) {
+				return false;
+			}
+			StreamKey other = (StreamKey) o;
+			return facilityId.equals(other.facilityId) && date.equals(other.date);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(facilityId, date);
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package com.dsoft.m2u.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.dsoft.m2u.api.dto.MobileFacilityDTO;
+import com.dsoft.m2u.api.dto.OrderStoryDTO;
+import com.dsoft.m2u.domain.CategoryTranslate;
+import com.dsoft.m2u.domain.Facility;
+import com.dsoft.m2u.domain.FacilityTranslate;
+import com.dsoft.m2u.domain.LanguageCode;
+import com.dsoft.m2u.domain.Template;
+import com.dsoft.m2u.event.ReferenceDataChangedEvent;
+/**
+ * [Description]: Read-through cache of the localized facility and template catalog.<br>
+ * [ Remarks ]: Views are resolved once from the entities, translations
+ * included, and shared between requests; they hold no entity references.
+ * Facilities are dropped on FACILITY changes, templates on TEMPLATE or
+ * CATEGORY changes, which ReferenceDataChangePublisher announces after each
+ * commit, and reloaded after the reference data TTL described there. Each map
+ * holds at most {@code catalog.cache.max-size} views; beyond that, views are
+ * served uncached.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ *
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Service
+public class CatalogCache {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Value("${reference-data.cache.ttl-seconds:600}")
+	private long ttlSeconds;
+
+	@Value("${catalog.cache.max-size:10000}")
+	private int maxSize;
+
+	private final ConcurrentMap<String, FacilityView> facilities = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, TemplateView> templates = new ConcurrentHashMap<>();
+
+	private final AtomicLong facilityGeneration = new AtomicLong();
+
+	private final AtomicLong templateGeneration = new AtomicLong();
+
+	public static final class FacilityView {
+
+		private final String id;
+		private final MobileFacilityDTO prototype;
+		private final Map<LanguageCode, String> titles;
+		private final long loadedAt;
+
+		private FacilityView(Facility facility) {
+			this.id = facility.getId();
+			this.loadedAt = System.currentTimeMillis();
+			this.prototype = new MobileFacilityDTO();
+			this.prototype.setId(facility.getId());
+			this.prototype.setLocation(facility.getLocation());
+			Map<LanguageCode, String> resolved = new EnumMap<>(LanguageCode.class);
+			for (FacilityTranslate facilityTranslate : facility.getTranslates()) {
+				resolved.put(facilityTranslate.getCode(), facilityTranslate.getTitle());
+			}
+			this.titles = Collections.unmodifiableMap(resolved);
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getTitle(LanguageCode code) {
+			return titles.get(code);
+		}
+
+		public MobileFacilityDTO toMobileFacilityDTO() {
+			MobileFacilityDTO mobileFacilityDTO = new MobileFacilityDTO();
+			mobileFacilityDTO.setId(prototype.getId());
+			mobileFacilityDTO.setLocation(prototype.getLocation());
+			mobileFacilityDTO.setTitleVi(getTitle(LanguageCode.VI));
+			mobileFacilityDTO.setTitleEn(getTitle(LanguageCode.EN));
+			return mobileFacilityDTO;
+		}
+	}
+
+	public static final class TemplateView {
+
+		private final String id;
+		/** Template name, image and duration as they appear on a story DTO. */
+		private final OrderStoryDTO prototype;
+		private final Map<LanguageCode, String> categoryNames;
+		private final long loadedAt;
+
+		private TemplateView(Template template) {
+			this.id = template.getId();
+			this.loadedAt = System.currentTimeMillis();
+			this.prototype = new OrderStoryDTO();
+			this.prototype.setTemplateName(template.getNameDsp());
+			this.prototype.setImageURI(template.getImageUri());
+			this.prototype.setDurationTemplate(template.getDuration());
+			Map<LanguageCode, String> resolved = new EnumMap<>(LanguageCode.class);
+			if (template.getCategory() != null) {
+				for (CategoryTranslate categoryTranslate : template.getCategory().getTranslates()) {
+					resolved.put(categoryTranslate.getCode(), categoryTranslate.getName());
+				}
+			}
+			this.categoryNames = Collections.unmodifiableMap(resolved);
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getCategoryName(LanguageCode code) {
+			return categoryNames.get(code);
+		}
+
+		public void applyTo(OrderStoryDTO storyDTO) {
+			storyDTO.setTemplateName(prototype.getTemplateName());
+			storyDTO.setImageURI(prototype.getImageURI());
+			storyDTO.setDurationTemplate(prototype.getDurationTemplate());
+			storyDTO.setTemplateCategoryNameVi(getCategoryName(LanguageCode.VI));
+			storyDTO.setTemplateCategoryNameEn(getCategoryName(LanguageCode.EN));
+		}
+	}
+
+	public FacilityView getFacility(String facilityId) {
+		return getFacilities(Collections.singleton(facilityId)).get(facilityId);
+	}
+
+	/** Loads every missing facility of {@code facilityIds} in a single query. */
+	public Map<String, FacilityView> getFacilities(Collection<String> facilityIds) {
+		Map<String, FacilityView> result = new HashMap<>();
+		Set<String> missing = new LinkedHashSet<>();
+		for (String facilityId : facilityIds) {
+			FacilityView view = facilities.get(facilityId);
+			if (view != null && !isExpired(view.loadedAt)) {
+				result.put(facilityId, view);
+			} else {
+				missing.add(facilityId);
+			}
+		}
+		if (missing.isEmpty()) {
+			return result;
+		}
+		long loadedGeneration = facilityGeneration.get();
+		for (Facility facility : entityManager.createQuery("select distinct f from Facility f "
+				+ "left join fetch f.translates where f.id in :facilityIds", Facility.class)
+				.setParameter("facilityIds", missing)
+				.getResultList()) {
+			FacilityView view = new FacilityView(facility);
+			if (facilityGeneration.get() == loadedGeneration && hasRoom(facilities, view.getId(), cached -> cached.loadedAt)) {
+				facilities.put(view.getId(), view);
+			}
+			result.put(view.getId(), view);
+		}
+		return result;
+	}
+
+	public TemplateView getTemplate(String templateId) {
+		return getTemplates(Collections.singleton(templateId)).get(templateId);
+	}
+
+	/** Loads every missing template of {@code templateIds} in a single query. */
+	public Map<String, TemplateView> getTemplates(Collection<String> templateIds) {
+		Map<String, TemplateView> result = new HashMap<>();
+		Set<String> missing = new LinkedHashSet<>();
+		for (String templateId : templateIds) {
+			TemplateView view = templates.get(templateId);
+			if (view != null && !isExpired(view.loadedAt)) {
+				result.put(templateId, view);
+			} else {
+				missing.add(templateId);
+			}
+		}
+		if (missing.isEmpty()) {
+			return result;
+		}
+		long loadedGeneration = templateGeneration.get();
+		for (Template template : entityManager.createQuery("select distinct t from Template t "
+				+ "left join fetch t.category c left join fetch c.translates where t.id in :templateIds", Template.class)
+				.setParameter("templateIds", missing)
+				.getResultList()) {
+			TemplateView view = new TemplateView(template);
+			if (templateGeneration.get() == loadedGeneration && hasRoom(templates, view.getId(), cached -> cached.loadedAt)) {
+				templates.put(view.getId(), view);
+			}
+			result.put(view.getId(), view);
+		}
+		return result;
+	}
+
+	public void invalidateFacilities() {
+		facilityGeneration.incrementAndGet();
+		facilities.clear();
+	}
+
+	public void invalidateTemplates() {
+		templateGeneration.incrementAndGet();
+		templates.clear();
+	}
+
+	private boolean isExpired(long loadedAt) {
+		return System.currentTimeMillis() - loadedAt > TimeUnit.SECONDS.toMillis(ttlSeconds);
+	}
+
+	/** Makes room by dropping expired views when the map is full. */
+	private <V> boolean hasRoom(ConcurrentMap<String, V> views, String id, ToLongFunction<V> loadedAt) {
+		if (views.size() < maxSize || views.containsKey(id)) {
+			return true;
+		}
+		views.values().removeIf(view -> isExpired(loadedAt.applyAsLong(view)));
+		return views.size() < maxSize;
+	}
+
+	@EventListener
+	public void onReferenceDataChanged(ReferenceDataChangedEvent event) {
+		switch (event.getType()) {
+		case FACILITY:
+			invalidateFacilities();
+			break;
+		case TEMPLATE:
+		case CATEGORY:
+			invalidateTemplates();
+			break;
+		default:
+			break;
+		}
+	}
+}
@@ -0,0 +1,435 @@
+package com.dsoft.m2u.utils;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.Label;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+
+/**
+ * Copies the properties of one class onto another with a copier class
+ * generated once per mapper, instead of matching them on every call like
+ * {@link MapperUtil}.<br>
+ * The copier's single method creates the target and calls every getter and
+ * setter directly, one after the other, as hand-written mapping code would,
+ * so the JIT can inline the accessors into it. Method handles or functional
+ * objects held in fields and called in a loop are not constants to the JIT
+ * and cost an indirect call per property.<br>
+ * A target property is filled from the source getter of the same name or,
+ * failing that, from a nested getter path ({@code facilityId} from
+ * {@code getFacility().getId()}). Values of a simple type are converted with
+ * {@code toString()} when the target is a {@link String}; null values are not
+ * copied. Properties the caller fills in itself are listed as ignored. If any
+ * other property cannot be copied this way, or a class involved is not public,
+ * the mapper delegates every call to {@link MapperUtil}, so the result is never
+ * less complete than before.
+ */
+public final class CompiledMapper<S, T> {
+
+	private static final Logger logger = LogManager.getLogger(CompiledMapper.class);
+
+	private static final int MAX_PATH_DEPTH = 2;
+
+	private static final AtomicInteger COPIER_SEQUENCE = new AtomicInteger();
+
+	/** Local slots of the generated copy method. */
+	private static final int SOURCE = 1;
+	private static final int TARGET = 2;
+	private static final int OWNER = 3;
+
+	private final Class<T> targetClass;
+	private final Function<Object, T> copier;
+
+	private static final class PropertyCopy {
+
+		/** Getters from the source to the value; each is called on the value of the one before. */
+		private final List<Method> path;
+		private final Method setter;
+		private final boolean toText;
+
+		private PropertyCopy(List<Method> path, Method setter, boolean toText) {
+			this.path = path;
+			this.setter = setter;
+			this.toText = toText;
+		}
+	}
+
+	/** Defines the copier of one mapper, as a child of the loader of the mapped classes. */
+	private static final class CopierLoader extends ClassLoader {
+
+		private CopierLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		private Class<?> define(String name, byte[] code) {
+			return defineClass(name, code, 0, code.length);
+		}
+	}
+
+	private CompiledMapper(Class<S> sourceClass, Class<T> targetClass, Set<String> ignored) {
+		this.targetClass = targetClass;
+		List<PropertyCopy> resolved = new ArrayList<>();
+		List<String> unresolved = new ArrayList<>();
+		Function<Object, T> generated = null;
+		try {
+			Map<String, PropertyDescriptor> sourceProperties = readableProperties(sourceClass);
+			for (PropertyDescriptor property : Introspector.getBeanInfo(targetClass).getPropertyDescriptors()) {
+				Method setter = property.getWriteMethod();
+				if (setter == null || ignored.contains(property.getName())) {
+					continue;
+				}
+				List<Method> path = new ArrayList<>();
+				if (!resolvePath(sourceProperties, property.getName(), 0, path)) {
+					// MapperUtil leaves unmatched properties untouched as well
+					continue;
+				}
+				Method getter = path.get(path.size() - 1);
+				if (isAssignable(getter, setter)) {
+					resolved.add(new PropertyCopy(path, setter, false));
+				} else if (setter.getParameterTypes()[0] == String.class && isSimple(getter.getReturnType())) {
+					resolved.add(new PropertyCopy(path, setter, true));
+				} else {
+					unresolved.add(property.getName());
+				}
+			}
+			if (unresolved.isEmpty()) {
+				generated = generate(sourceClass, targetClass, resolved, unresolved);
+			}
+		} catch (IntrospectionException | ReflectiveOperationException | LinkageError e) {
+			unresolved.add(e.toString());
+		}
+		this.copier = unresolved.isEmpty() ? generated : null;
+		if (copier == null) {
+			logger.warn("CompiledMapper {} -> {}: falling back to MapperUtil, cannot copy {}", sourceClass.getSimpleName(),
+					targetClass.getSimpleName(), unresolved);
+		}
+	}
+
+	/**
+	 * @param ignored target properties the caller sets itself after mapping
+	 */
+	public static <S, T> CompiledMapper<S, T> of(Class<S> sourceClass, Class<T> targetClass, String... ignored) {
+		return new CompiledMapper<>(sourceClass, targetClass, new HashSet<>(Arrays.asList(ignored)));
+	}
+
+	public T map(S source) {
+		if (copier == null) {
+			return MapperUtil.mapper(source, targetClass);
+		}
+		return copier.apply(source);
+	}
+
+	public boolean isCompiled() {
+		return copier != null;
+	}
+
+	private static boolean resolvePath(Map<String, PropertyDescriptor> sourceProperties, String name, int depth, List<Method> path)
+			throws IntrospectionException {
+		PropertyDescriptor direct = sourceProperties.get(name);
+		if (direct != null) {
+			path.add(direct.getReadMethod());
+			return true;
+		}
+		if (depth >= MAX_PATH_DEPTH) {
+			return false;
+		}
+		for (int i = 1; i < name.length(); i++) {
+			if (!Character.isUpperCase(name.charAt(i))) {
+				continue;
+			}
+			PropertyDescriptor owner = sourceProperties.get(name.substring(0, i));
+			if (owner == null || isSimple(owner.getPropertyType()) || Collection.class.isAssignableFrom(owner.getPropertyType())) {
+				continue;
+			}
+			path.add(owner.getReadMethod());
+			if (resolvePath(readableProperties(owner.getPropertyType()), Introspector.decapitalize(name.substring(i)), depth + 1, path)) {
+				return true;
+			}
+			path.remove(path.size() - 1);
+		}
+		return false;
+	}
+
+	private static Map<String, PropertyDescriptor> readableProperties(Class<?> type) throws IntrospectionException {
+		Map<String, PropertyDescriptor> properties = new HashMap<>();
+		for (PropertyDescriptor property : Introspector.getBeanInfo(type).getPropertyDescriptors()) {
+			if (property.getReadMethod() != null && !"class".equals(property.getName())) {
+				properties.put(property.getName(), property);
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Generates and loads a {@link Function} whose {@code apply} maps a source
+	 * object. The class is defined in a loader of its own, so it may only use
+	 * public classes and methods; anything else is added to {@code unresolved}.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Function<Object, T> generate(Class<?> sourceClass, Class<T> targetClass, List<PropertyCopy> copies,
+			List<String> unresolved) throws ReflectiveOperationException {
+		ClassLoader parent = targetClass.getClassLoader();
+		checkAccessible(parent, targetClass, unresolved);
+		checkAccessible(parent, targetClass.getConstructor(), unresolved);
+		for (PropertyCopy copy : copies) {
+			Class<?> receiver = sourceClass;
+			for (Method getter : copy.path) {
+				checkAccessible(parent, receiver, unresolved);
+				checkAccessible(parent, getter, unresolved);
+				receiver = getter.getReturnType();
+			}
+			checkAccessible(parent, copy.setter, unresolved);
+		}
+		if (!unresolved.isEmpty()) {
+			return null;
+		}
+
+		String name = CompiledMapper.class.getName() + "$$Copier" + COPIER_SEQUENCE.incrementAndGet() + "$$" + sourceClass.getSimpleName()
+				+ "To" + targetClass.getSimpleName();
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES) {
+
+			@Override
+			protected String getCommonSuperClass(String type1, String type2) {
+				// only the OWNER slot merges, and every read of it is checked or cast
+				return "java/lang/Object";
+			}
+		};
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC, internalName(name), null, "java/lang/Object",
+				new String[] { "java/util/function/Function" });
+
+		MethodVisitor init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		init.visitCode();
+		init.visitVarInsn(Opcodes.ALOAD, 0);
+		init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		init.visitInsn(Opcodes.RETURN);
+		init.visitMaxs(0, 0);
+		init.visitEnd();
+
+		MethodVisitor apply = writer.visitMethod(Opcodes.ACC_PUBLIC, "apply", "(Ljava/lang/Object;)Ljava/lang/Object;", null, null);
+		apply.visitCode();
+		apply.visitTypeInsn(Opcodes.NEW, internalName(targetClass));
+		apply.visitInsn(Opcodes.DUP);
+		apply.visitMethodInsn(Opcodes.INVOKESPECIAL, internalName(targetClass), "<init>", "()V", false);
+		apply.visitVarInsn(Opcodes.ASTORE, TARGET);
+		for (PropertyCopy copy : copies) {
+			writeCopy(apply, sourceClass, targetClass, copy);
+		}
+		apply.visitVarInsn(Opcodes.ALOAD, TARGET);
+		apply.visitInsn(Opcodes.ARETURN);
+		apply.visitMaxs(0, 0);
+		apply.visitEnd();
+		writer.visitEnd();
+
+		Class<?> copierClass = new CopierLoader(parent).define(name, writer.toByteArray());
+		return (Function<Object, T>) copierClass.getConstructor().newInstance();
+	}
+
+	/**
+	 * Emits {@code target.setX(convert(source.getA().getX()))} for one
+	 * property, skipping it when a value on the path is null.
+	 */
+	private static void writeCopy(MethodVisitor apply, Class<?> sourceClass, Class<?> targetClass, PropertyCopy copy) {
+		Label skip = new Label();
+		Class<?> receiver = sourceClass;
+		apply.visitVarInsn(Opcodes.ALOAD, SOURCE);
+		apply.visitVarInsn(Opcodes.ASTORE, OWNER);
+		for (Method getter : copy.path.subList(0, copy.path.size() - 1)) {
+			loadOwner(apply, receiver);
+			invoke(apply, receiver, getter);
+			apply.visitVarInsn(Opcodes.ASTORE, OWNER);
+			apply.visitVarInsn(Opcodes.ALOAD, OWNER);
+			apply.visitJumpInsn(Opcodes.IFNULL, skip);
+			receiver = getter.getReturnType();
+		}
+		Method getter = copy.path.get(copy.path.size() - 1);
+		Class<?> valueType = getter.getReturnType();
+		Class<?> parameterType = copy.setter.getParameterTypes()[0];
+		if (valueType.isPrimitive()) {
+			apply.visitVarInsn(Opcodes.ALOAD, TARGET);
+			loadOwner(apply, receiver);
+			invoke(apply, receiver, getter);
+		} else {
+			loadOwner(apply, receiver);
+			invoke(apply, receiver, getter);
+			apply.visitVarInsn(Opcodes.ASTORE, OWNER);
+			apply.visitVarInsn(Opcodes.ALOAD, OWNER);
+			apply.visitJumpInsn(Opcodes.IFNULL, skip);
+			apply.visitVarInsn(Opcodes.ALOAD, TARGET);
+			apply.visitVarInsn(Opcodes.ALOAD, OWNER);
+			apply.visitTypeInsn(Opcodes.CHECKCAST, internalName(valueType));
+		}
+		if (copy.toText) {
+			toText(apply, valueType);
+		} else if (valueType.isPrimitive() && !parameterType.isPrimitive()) {
+			Class<?> wrapper = wrap(valueType);
+			apply.visitMethodInsn(Opcodes.INVOKESTATIC, internalName(wrapper), "valueOf", "(" + descriptor(valueType) + ")" + descriptor(wrapper),
+					false);
+		} else if (!valueType.isPrimitive() && parameterType.isPrimitive()) {
+			apply.visitTypeInsn(Opcodes.CHECKCAST, internalName(wrap(parameterType)));
+			apply.visitMethodInsn(Opcodes.INVOKEVIRTUAL, internalName(wrap(parameterType)), parameterType.getName() + "Value",
+					"()" + descriptor(parameterType), false);
+		}
+		invoke(apply, targetClass, copy.setter);
+		if (copy.setter.getReturnType() != void.class) {
+			// fluent setters return the target
+			apply.visitInsn(copy.setter.getReturnType() == long.class || copy.setter.getReturnType() == double.class ? Opcodes.POP2 : Opcodes.POP);
+		}
+		apply.visitLabel(skip);
+	}
+
+	private static void loadOwner(MethodVisitor apply, Class<?> receiver) {
+		apply.visitVarInsn(Opcodes.ALOAD, OWNER);
+		apply.visitTypeInsn(Opcodes.CHECKCAST, internalName(receiver));
+	}
+
+	private static void invoke(MethodVisitor apply, Class<?> receiver, Method method) {
+		apply.visitMethodInsn(receiver.isInterface() ? Opcodes.INVOKEINTERFACE : Opcodes.INVOKEVIRTUAL, internalName(receiver),
+				method.getName(), methodDescriptor(method), receiver.isInterface());
+	}
+
+	/** Converts the value on the stack to its {@code toString()}. */
+	private static void toText(MethodVisitor apply, Class<?> valueType) {
+		if (!valueType.isPrimitive()) {
+			apply.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "toString", "()Ljava/lang/String;", false);
+			return;
+		}
+		// String.valueOf has no byte or short overload; both widen to int
+		String argument = valueType == byte.class || valueType == short.class ? "I" : descriptor(valueType);
+		apply.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/String", "valueOf", "(" + argument + ")Ljava/lang/String;", false);
+	}
+
+	private static void checkAccessible(ClassLoader loader, Class<?> type, List<String> unresolved) {
+		if (type.isPrimitive() || type.isArray()) {
+			return;
+		}
+		if (!Modifier.isPublic(type.getModifiers())) {
+			unresolved.add(type.getName() + " is not public");
+			return;
+		}
+		try {
+			if (Class.forName(type.getName(), false, loader) != type) {
+				unresolved.add(type.getName() + " is not visible from " + loader);
+			}
+		} catch (ClassNotFoundException e) {
+			unresolved.add(type.getName() + " is not visible from " + loader);
+		}
+	}
+
+	private static void checkAccessible(ClassLoader loader, Executable executable, List<String> unresolved) {
+		if (!Modifier.isPublic(executable.getModifiers())) {
+			unresolved.add(executable + " is not public");
+		}
+		for (Class<?> parameter : executable.getParameterTypes()) {
+			checkAccessible(loader, parameter, unresolved);
+		}
+		if (executable instanceof Method) {
+			checkAccessible(loader, ((Method) executable).getReturnType(), unresolved);
+		}
+	}
+
+	private static String internalName(String className) {
+		return className.replace('.', '/');
+	}
+
+	private static String internalName(Class<?> type) {
+		return type.isArray() ? descriptor(type) : internalName(type.getName());
+	}
+
+	private static String methodDescriptor(Method method) {
+		StringBuilder descriptor = new StringBuilder("(");
+		for (Class<?> parameter : method.getParameterTypes()) {
+			descriptor.append(descriptor(parameter));
+		}
+		return descriptor.append(')').append(descriptor(method.getReturnType())).toString();
+	}
+
+	private static String descriptor(Class<?> type) {
+		if (type.isArray()) {
+			return internalName(type.getName());
+		}
+		if (type == void.class) {
+			return "V";
+		} else if (type == int.class) {
+			return "I";
+		} else if (type == long.class) {
+			return "J";
+		} else if (type == double.class) {
+			return "D";
+		} else if (type == boolean.class) {
+			return "Z";
+		} else if (type == float.class) {
+			return "F";
+		} else if (type == short.class) {
+			return "S";
+		} else if (type == byte.class) {
+			return "B";
+		} else if (type == char.class) {
+			return "C";
+		}
+		return "L" + internalName(type.getName()) + ";";
+	}
+
+	private static boolean isAssignable(Method getter, Method setter) {
+		Class<?> targetType = wrap(setter.getParameterTypes()[0]);
+		if (!targetType.isAssignableFrom(wrap(getter.getReturnType()))) {
+			return false;
+		}
+		if (Collection.class.isAssignableFrom(targetType) || Map.class.isAssignableFrom(targetType)) {
+			// element types must match, the entity collections are never handed out
+			Type targetGeneric = setter.getGenericParameterTypes()[0];
+			return targetGeneric instanceof ParameterizedType && targetGeneric.equals(getter.getGenericReturnType());
+		}
+		return true;
+	}
+
+	private static boolean isSimple(Class<?> type) {
+		return type.isPrimitive() || type.isEnum() || Number.class.isAssignableFrom(type) || CharSequence.class.isAssignableFrom(type)
+				|| type == Boolean.class || type == Character.class || Date.class.isAssignableFrom(type) || Temporal.class.isAssignableFrom(type);
+	}
+
+	private static Class<?> wrap(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return type;
+		}
+		if (type == int.class) {
+			return Integer.class;
+		} else if (type == long.class) {
+			return Long.class;
+		} else if (type == double.class) {
+			return Double.class;
+		} else if (type == boolean.class) {
+			return Boolean.class;
+		} else if (type == float.class) {
+			return Float.class;
+		} else if (type == short.class) {
+			return Short.class;
+		} else if (type == byte.class) {
+			return Byte.class;
+		} else if (type == char.class) {
+			return Character.class;
+		}
+		return type;
+	}
+}
@@ -0,0 +1,25 @@
+package com.dsoft.m2u.api.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageResDTO<T> {
+
+	private List<T> items;
+
+	/** Opaque token for the next page, null on the last page. */
+	private String nextCursor;
+
+	private boolean hasMore;
+
+	/** Only filled when the caller asked for a total. */
+	private Integer totalItem;
+}
@@ -0,0 +1,66 @@
+package com.dsoft.m2u.service;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+
+import com.dsoft.m2u.api.dto.MobileTimeRejectResDTO;
+
+/**
+ * Everything needed to validate and price slots of one facility on one date,
+ * computed once per request and shared by all slots on that date.
+ */
+public class DaySnapshot {
+
+	private final String facilityId;
+	private final LocalDate date;
+	private final int[] rejectStarts;
+	private final int[] rejectEnds;
+	private final SlotBitmap booked;
+	private final PriceTableService.DayPrices prices;
+
+	public DaySnapshot(String facilityId, LocalDate date, List<MobileTimeRejectResDTO> timeRejects, SlotBitmap booked,
+			PriceTableService.DayPrices prices) {
+		this.facilityId = facilityId;
+		this.date = date;
+		this.rejectStarts = new int[timeRejects.size()];
+		this.rejectEnds = new int[timeRejects.size()];
+		for (int i = 0; i < timeRejects.size(); i++) {
+			rejectStarts[i] = minuteOf(LocalTime.parse(timeRejects.get(i).getTimeStart()));
+			rejectEnds[i] = minuteOf(LocalTime.parse(timeRejects.get(i).getTimeEnd()));
+		}
+		this.booked = booked;
+		this.prices = prices;
+	}
+
+	public String getFacilityId() {
+		return facilityId;
+	}
+
+	public LocalDate getDate() {
+		return date;
+	}
+
+	public SlotBitmap getBooked() {
+		return booked;
+	}
+
+	public PriceTableService.DayPrices getPrices() {
+		return prices;
+	}
+
+	/** @return true if the time falls inside a closed window of the day */
+	public boolean isRejected(LocalTime time) {
+		int minute = minuteOf(time);
+		for (int i = 0; i < rejectStarts.length; i++) {
+			if (minute >= rejectStarts[i] && minute < rejectEnds[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int minuteOf(LocalTime time) {
+		return time.getHour() * 60 + time.getMinute();
+	}
+}
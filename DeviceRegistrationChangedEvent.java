@@ -0,0 +1,22 @@
+package com.dsoft.m2u.event;
+
+import org.springframework.context.ApplicationEvent;
+
+import lombok.Getter;
+
+/**
+ * Published when a device token is registered for or removed from a user, so
+ * that cached token lists of that user are dropped.
+ */
+@Getter
+public class DeviceRegistrationChangedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 6810236427795130482L;
+
+	private final String fireBaseId;
+
+	public DeviceRegistrationChangedEvent(Object source, String fireBaseId) {
+		super(source);
+		this.fireBaseId = fireBaseId;
+	}
+}
@@ -0,0 +1,105 @@
+package com.dsoft.m2u.push.notification.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.stereotype.Component;
+
+import com.dsoft.m2u.domain.Device;
+import com.dsoft.m2u.event.DeviceRegistrationChangedEvent;
+import com.dsoft.m2u.repository.DeviceRepository;
+
+/**
+ * Registration tokens of each user's devices, cached for
+ * {@code push.notification.device-cache.ttl-seconds}.<br>
+ * A user's entry is dropped on {@link DeviceRegistrationChangedEvent}. Tokens
+ * that FCM reports as unregistered or invalid are pruned: the device row is
+ * deleted and the token removed from the cached list.
+ */
+@Component
+public class DeviceTokenCache {
+
+	private static final Logger logger = LogManager.getLogger(DeviceTokenCache.class);
+
+	@Autowired
+	private DeviceRepository deviceRepository;
+
+	@Value("${push.notification.device-cache.ttl-seconds:300}")
+	private long ttlSeconds;
+
+	private final ConcurrentMap<String, Tokens> tokens = new ConcurrentHashMap<>();
+
+	private final AtomicLong pruned = new AtomicLong();
+
+	private static final class Tokens {
+
+		private final List<String> values;
+		private final long loadedAt;
+
+		private Tokens(List<String> values) {
+			this.values = values;
+			this.loadedAt = System.currentTimeMillis();
+		}
+	}
+
+	/** @return the user's tokens; never null */
+	public List<String> tokensOf(String fireBaseId) {
+		Tokens cached = tokens.get(fireBaseId);
+		if (cached == null || System.currentTimeMillis() - cached.loadedAt > TimeUnit.SECONDS.toMillis(ttlSeconds)) {
+			cached = load(fireBaseId);
+			tokens.put(fireBaseId, cached);
+		}
+		return cached.values;
+	}
+
+	public void invalidate(String fireBaseId) {
+		tokens.remove(fireBaseId);
+	}
+
+	@EventListener
+	public void onDeviceRegistrationChanged(DeviceRegistrationChangedEvent event) {
+		invalidate(event.getFireBaseId());
+	}
+
+	/** Removes a token FCM has rejected as no longer registered. */
+	public void prune(String fireBaseId, String token) {
+		tokens.computeIfPresent(fireBaseId, (id, cached) -> {
+			List<String> remaining = new ArrayList<>(cached.values);
+			remaining.remove(token);
+			return new Tokens(Collections.unmodifiableList(remaining));
+		});
+		try {
+			deviceRepository.deleteById(token);
+			pruned.incrementAndGet();
+			logger.info("DeviceTokenCache: removed unregistered device of user {}", fireBaseId);
+		} catch (EmptyResultDataAccessException e) {
+			// already removed, e.g. by a concurrent send to the same device
+		}
+	}
+
+	public long getPrunedCount() {
+		return pruned.get();
+	}
+
+	private Tokens load(String fireBaseId) {
+		List<String> values = new ArrayList<>();
+		List<Device> devices = deviceRepository.findByUserFireBaseId(fireBaseId);
+		if (devices != null) {
+			for (Device device : devices) {
+				values.add(device.getId());
+			}
+		}
+		return new Tokens(Collections.unmodifiableList(values));
+	}
+}
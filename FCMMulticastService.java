@@ -0,0 +1,73 @@
+package com.dsoft.m2u.push.notification.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.stereotype.Service;
+
+import com.dsoft.m2u.api.request.PushNotificationRequest;
+import com.google.firebase.messaging.BatchResponse;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.messaging.FirebaseMessagingException;
+import com.google.firebase.messaging.Message;
+import com.google.firebase.messaging.SendResponse;
+
+/**
+ * Sends to many devices per FCM request.<br>
+ * {@link #sendMulticast} sends one payload to a list of tokens,
+ * {@link #sendAll} sends a list of requests that each carry their own token
+ * and payload, e.g. notifications of different users. Both split the input
+ * into requests of at most {@link #MAX_BATCH} messages and return the outcome
+ * per token, in input order: {@code null} when FCM accepted the message,
+ * otherwise the error. A request that fails as a whole fails all its tokens.
+ * Messages are built by {@link FcmMessages}, like the single sends.
+ */
+@Service
+public class FCMMulticastService {
+
+	private static final Logger logger = LogManager.getLogger(FCMMulticastService.class);
+
+	/** Most messages FCM accepts in one batch request. */
+	public static final int MAX_BATCH = 500;
+
+	public List<Exception> sendMulticast(PushNotificationRequest request, List<String> tokens) {
+		List<Exception> results = new ArrayList<>(tokens.size());
+		for (int from = 0; from < tokens.size(); from += MAX_BATCH) {
+			List<String> chunk = tokens.subList(from, Math.min(from + MAX_BATCH, tokens.size()));
+			try {
+				collect(FirebaseMessaging.getInstance().sendMulticast(FcmMessages.multicast(request, chunk)), results);
+			} catch (FirebaseMessagingException e) {
+				logger.warn("FCMMulticastService.sendMulticast: batch of {} failed", chunk.size(), e);
+				results.addAll(Collections.nCopies(chunk.size(), e));
+			}
+		}
+		return results;
+	}
+
+	public List<Exception> sendAll(List<PushNotificationRequest> requests) {
+		List<Exception> results = new ArrayList<>(requests.size());
+		for (int from = 0; from < requests.size(); from += MAX_BATCH) {
+			List<PushNotificationRequest> chunk = requests.subList(from, Math.min(from + MAX_BATCH, requests.size()));
+			List<Message> messages = new ArrayList<>(chunk.size());
+			for (PushNotificationRequest request : chunk) {
+				messages.add(FcmMessages.message(request, request.getToken()));
+			}
+			try {
+				collect(FirebaseMessaging.getInstance().sendAll(messages), results);
+			} catch (FirebaseMessagingException e) {
+				logger.warn("FCMMulticastService.sendAll: batch of {} failed", chunk.size(), e);
+				results.addAll(Collections.nCopies(chunk.size(), e));
+			}
+		}
+		return results;
+	}
+
+	private static void collect(BatchResponse response, List<Exception> results) {
+		for (SendResponse send : response.getResponses()) {
+			results.add(send.isSuccessful() ? null : send.getException());
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.dsoft.m2u.push.notification.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sheds FCM sends while FCM is failing.<br>
+ * Outcomes are counted per window of {@code push.notification.circuit.window-ms}.
+ * When a window has at least {@code minimum-calls} sends and the share of
+ * failures reaches {@code failure-ratio}, the circuit opens and sends are
+ * refused for {@code open-ms}. After that a single probe is let through: its
+ * success closes the circuit, its failure opens it again. Outcomes of sends
+ * that were already under way when the circuit opened do not close it. Rejected tokens do
+ * not count as failures, FCM answered them.
+ */
+@Component
+public class FcmCircuitBreaker {
+
+	private static final Logger logger = LogManager.getLogger(FcmCircuitBreaker.class);
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	@Value("${push.notification.circuit.window-ms:10000}")
+	private long windowMs;
+
+	@Value("${push.notification.circuit.minimum-calls:20}")
+	private int minimumCalls;
+
+	@Value("${push.notification.circuit.failure-ratio:0.5}")
+	private double failureRatio;
+
+	@Value("${push.notification.circuit.open-ms:30000}")
+	private long openMs;
+
+	private State state = State.CLOSED;
+
+	private long windowStart;
+
+	private int calls;
+
+	private int failures;
+
+	/** When the circuit opened, or when the current probe was let through. */
+	private long since;
+
+	private final AtomicLong shed = new AtomicLong();
+
+	/** @return whether a send may go to FCM now */
+	public synchronized boolean tryAcquire() {
+		if (state == State.CLOSED) {
+			return true;
+		}
+		long now = System.currentTimeMillis();
+		// after open-ms a probe is let through; a probe that never reported back,
+		// e.g. cancelled before it ran, is replaced after the same time
+		if (now - since < openMs) {
+			shed.incrementAndGet();
+			return false;
+		}
+		if (state == State.OPEN) {
+			logger.info("FcmCircuitBreaker: half-open, probing FCM");
+		}
+		state = State.HALF_OPEN;
+		since = now;
+		return true;
+	}
+
+	public synchronized void recordSuccess() {
+		if (state == State.OPEN) {
+			// a send that started before the circuit opened; only the probe may close it
+			return;
+		}
+		if (state == State.HALF_OPEN) {
+			logger.info("FcmCircuitBreaker: closed");
+			state = State.CLOSED;
+			resetWindow(System.currentTimeMillis());
+		}
+		count(false);
+	}
+
+	public synchronized void recordFailure() {
+		if (state == State.HALF_OPEN) {
+			open(System.currentTimeMillis());
+			return;
+		}
+		if (state == State.CLOSED && count(true)) {
+			logger.warn("FcmCircuitBreaker: {} of {} sends failed, open for {}ms", failures, calls, openMs);
+			open(System.currentTimeMillis());
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public long getShedCount() {
+		return shed.get();
+	}
+
+	/** @return whether the failure threshold is reached */
+	private boolean count(boolean failure) {
+		long now = System.currentTimeMillis();
+		if (now - windowStart > windowMs) {
+			resetWindow(now);
+		}
+		calls++;
+		if (failure) {
+			failures++;
+		}
+		return calls >= minimumCalls && failures >= failureRatio * calls;
+	}
+
+	private void open(long now) {
+		state = State.OPEN;
+		since = now;
+		resetWindow(now);
+	}
+
+	private void resetWindow(long now) {
+		windowStart = now;
+		calls = 0;
+		failures = 0;
+	}
+}
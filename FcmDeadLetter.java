@@ -0,0 +1,69 @@
+package com.dsoft.m2u.domain;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.annotations.GenericGenerator;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Push to one device that still failed after all retries, kept so it can be
+ * replayed once FCM has recovered.
+ */
+@Entity
+@Table(name = "fcm_dead_letter", indexes = { @Index(name = "idx_fcm_dead_letter_created_at", columnList = "created_at") })
+@Getter
+@Setter
+@NoArgsConstructor
+public class FcmDeadLetter {
+
+	@Id
+	@GeneratedValue(generator = "uuid")
+	@GenericGenerator(name = "uuid", strategy = "uuid2")
+	private String id;
+
+	@Column(name = "token", nullable = false)
+	private String token;
+
+	@Column(name = "fire_base_id")
+	private String fireBaseId;
+
+	@Column(name = "order_id", nullable = false)
+	private String orderId;
+
+	@Column(name = "order_no")
+	private String orderNo;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "order_status", nullable = false)
+	private OrderStatus orderStatus;
+
+	@Column(name = "created_by")
+	private String createdBy;
+
+	@Column(name = "message")
+	private String message;
+
+	@Column(name = "attempts", nullable = false)
+	private int attempts;
+
+	@Column(name = "last_error", length = 1000)
+	private String lastError;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "created_at", nullable = false)
+	private Date createdAt;
+}
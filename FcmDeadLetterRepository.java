@@ -0,0 +1,18 @@
+package com.dsoft.m2u.repository;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.dsoft.m2u.domain.FcmDeadLetter;
+
+@Repository
+public interface FcmDeadLetterRepository extends JpaRepository<FcmDeadLetter, String> {
+
+	/** Ids of the oldest dead letters, locked so that nodes replaying at the same time skip each other's rows. */
+	@Query(value = "SELECT id FROM fcm_dead_letter ORDER BY created_at LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+	List<String> lockOldest(@Param("limit") int limit);
+}
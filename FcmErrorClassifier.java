@@ -0,0 +1,63 @@
+package com.dsoft.m2u.push.notification.service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Sorts FCM send failures into those caused by a dead registration token and
+ * all others.<br>
+ * Works on the error codes and messages of the whole cause chain, so it does
+ * not depend on the Firebase Admin SDK version that {@link FCMService} uses:
+ * older versions report {@code registration-token-not-registered}, newer ones
+ * {@code UNREGISTERED}.
+ */
+public final class FcmErrorClassifier {
+
+	public enum Kind {
+		/** The token will never work again; the device should be removed. */
+		INVALID_TOKEN,
+		/** Anything else, including quota and availability errors. */
+		OTHER
+	}
+
+	private static final List<String> INVALID_TOKEN_MARKERS = Arrays.asList(
+			"registration-token-not-registered",
+			"invalid-registration-token",
+			"unregistered",
+			"not a valid fcm registration token",
+			"requested entity was not found",
+			"notregistered",
+			"invalidregistration");
+
+	private FcmErrorClassifier() {
+	}
+
+	public static Kind classify(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+			String text = (cause.getMessage() == null ? "" : cause.getMessage()) + " " + errorCodeOf(cause);
+			text = text.toLowerCase(Locale.ROOT);
+			for (String marker : INVALID_TOKEN_MARKERS) {
+				if (text.contains(marker)) {
+					return Kind.INVALID_TOKEN;
+				}
+			}
+		}
+		return Kind.OTHER;
+	}
+
+	/** Reads getMessagingErrorCode() or getErrorCode() if the exception has one. */
+	private static String errorCodeOf(Throwable error) {
+		for (String getter : Arrays.asList("getMessagingErrorCode", "getErrorCode")) {
+			try {
+				Object code = error.getClass().getMethod(getter).invoke(error);
+				if (code != null) {
+					return code.toString();
+				}
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				// not a Firebase exception, or a version without this getter
+			}
+		}
+		return "";
+	}
+}
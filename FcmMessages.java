@@ -0,0 +1,81 @@
+package com.dsoft.m2u.push.notification.service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dsoft.m2u.api.request.PushNotificationRequest;
+import com.google.firebase.messaging.AndroidConfig;
+import com.google.firebase.messaging.AndroidNotification;
+import com.google.firebase.messaging.ApnsConfig;
+import com.google.firebase.messaging.Aps;
+import com.google.firebase.messaging.Message;
+import com.google.firebase.messaging.MulticastMessage;
+import com.google.firebase.messaging.Notification;
+
+/**
+ * Builds the FCM message of a {@link PushNotificationRequest}.<br>
+ * Single sends through {@link FCMService} and batch sends through
+ * {@link FCMMulticastService} must reach the device as the same
+ * notification: Android TTL and collapse key, priority, sound and tag, and
+ * the APNs category and thread, all keyed by the request's topic. Data
+ * entries with a null value are left out, since FCM data values must be
+ * strings.
+ */
+public final class FcmMessages {
+
+	/** How long FCM keeps an undelivered message for an offline Android device. */
+	public static final Duration TTL = Duration.ofMinutes(2);
+
+	private FcmMessages() {
+	}
+
+	public static Message message(PushNotificationRequest request, String token) {
+		return Message.builder()
+				.setNotification(new Notification(request.getTitle(), request.getMessage()))
+				.setAndroidConfig(androidConfig(request.getTopic()))
+				.setApnsConfig(apnsConfig(request.getTopic()))
+				.putAllData(data(request.getData()))
+				.setToken(token)
+				.build();
+	}
+
+	public static MulticastMessage multicast(PushNotificationRequest request, List<String> tokens) {
+		return MulticastMessage.builder()
+				.setNotification(new Notification(request.getTitle(), request.getMessage()))
+				.setAndroidConfig(androidConfig(request.getTopic()))
+				.setApnsConfig(apnsConfig(request.getTopic()))
+				.putAllData(data(request.getData()))
+				.addAllTokens(tokens)
+				.build();
+	}
+
+	public static AndroidConfig androidConfig(String topic) {
+		return AndroidConfig.builder()
+				.setTtl(TTL.toMillis())
+				.setCollapseKey(topic)
+				.setPriority(AndroidConfig.Priority.HIGH)
+				.setNotification(AndroidNotification.builder().setSound("default").setTag(topic).build())
+				.build();
+	}
+
+	public static ApnsConfig apnsConfig(String topic) {
+		return ApnsConfig.builder()
+				.setAps(Aps.builder().setCategory(topic).setThreadId(topic).build())
+				.build();
+	}
+
+	/** The data entries FCM accepts: both key and value set. */
+	public static Map<String, String> data(Map<String, String> data) {
+		Map<String, String> accepted = new LinkedHashMap<>();
+		if (data != null) {
+			for (Map.Entry<String, String> entry : data.entrySet()) {
+				if (entry.getKey() != null && entry.getValue() != null) {
+					accepted.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		return accepted;
+	}
+}
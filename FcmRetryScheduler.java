@@ -0,0 +1,280 @@
+package com.dsoft.m2u.push.notification.service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.dsoft.m2u.api.request.PushNotificationRequest;
+import com.dsoft.m2u.domain.FcmDeadLetter;
+import com.dsoft.m2u.domain.FirebaseLog;
+import com.dsoft.m2u.event.OrderNotification;
+import com.dsoft.m2u.repository.FcmDeadLetterRepository;
+
+/**
+ * Retries FCM sends to single devices that failed.<br>
+ * A failed send is put back on a timer with exponential backoff and jitter:
+ * after n attempts it waits between half and all of
+ * {@code base-delay-ms * 2^n}, capped at {@code max-delay-ms}. No thread sleeps;
+ * the timer hands due sends to a small pool. Sends refused by the
+ * {@link FcmCircuitBreaker} count as attempts. After {@code max-attempts}, or
+ * when {@code max-pending} sends are already waiting, the send is stored as an
+ * {@link FcmDeadLetter}. Dead letters are replayed with {@link #replay(int)},
+ * every {@code push.notification.retry.replay-cron} while the circuit is
+ * closed.
+ */
+@Component
+public class FcmRetryScheduler {
+
+	private static final Logger logger = LogManager.getLogger(FcmRetryScheduler.class);
+
+	@Autowired
+	private FCMService fcmService;
+
+	@Autowired
+	private FcmCircuitBreaker circuitBreaker;
+
+	@Autowired
+	private DeviceTokenCache deviceTokenCache;
+
+	@Autowired
+	private NotificationTemplateRegistry templates;
+
+	@Autowired
+	private NotificationWriteBuffer writeBuffer;
+
+	@Autowired
+	private FcmDeadLetterRepository deadLetterRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${push.notification.retry.max-attempts:5}")
+	private int maxAttempts;
+
+	@Value("${push.notification.retry.base-delay-ms:2000}")
+	private long baseDelayMs;
+
+	@Value("${push.notification.retry.max-delay-ms:300000}")
+	private long maxDelayMs;
+
+	@Value("${push.notification.retry.max-pending:10000}")
+	private int maxPending;
+
+	@Value("${push.notification.retry.threads:2}")
+	private int threads;
+
+	@Value("${push.notification.enabled:true}")
+	private boolean enabled;
+
+	@Value("${push.notification.retry.replay-limit:500}")
+	private int replayLimit;
+
+	private ScheduledExecutorService timer;
+
+	private ExecutorService senders;
+
+	private TransactionTemplate transactionTemplate;
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private final AtomicLong recovered = new AtomicLong();
+
+	private final AtomicLong deadLettered = new AtomicLong();
+
+	/** A send to one device and the attempts already made. */
+	private static final class Delivery {
+
+		private final OrderNotification notification;
+		private final String token;
+		private final String message;
+		private final int attempts;
+
+		private Delivery(OrderNotification notification, String token, String message, int attempts) {
+			this.notification = notification;
+			this.token = token;
+			this.message = message;
+			this.attempts = attempts;
+		}
+	}
+
+	@PostConstruct
+	public void init() {
+		timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "push-retry-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		AtomicInteger counter = new AtomicInteger();
+		senders = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "push-retry-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		// waiting sends are not kept; FirebaseLog has the first failure of each
+		List<Runnable> waiting = timer.shutdownNow();
+		senders.shutdownNow();
+		if (!waiting.isEmpty()) {
+			logger.warn("FcmRetryScheduler: {} retries dropped on shutdown", waiting.size());
+		}
+	}
+
+	/**
+	 * Schedules another attempt of a send that failed or was shed.
+	 *
+	 * @param attempts attempts already made, including the one that failed
+	 */
+	public void retry(OrderNotification notification, String token, String message, int attempts, String error) {
+		schedule(new Delivery(notification, token, message, attempts), error);
+	}
+
+	/**
+	 * Schedules up to {@code limit} dead letters, oldest first, for a fresh round
+	 * of attempts and deletes them. Sends that fail again become new dead
+	 * letters. Does nothing while the circuit is not closed.
+	 *
+	 * @return the number of dead letters replayed
+	 */
+	public int replay(int limit) {
+		if (circuitBreaker.getState() != FcmCircuitBreaker.State.CLOSED) {
+			logger.info("FcmRetryScheduler.replay: FCM circuit is {}, not replaying", circuitBreaker.getState());
+			return 0;
+		}
+		List<FcmDeadLetter> letters = transactionTemplate.execute(status -> {
+			List<FcmDeadLetter> oldest = deadLetterRepository.findAllById(deadLetterRepository.lockOldest(limit));
+			deadLetterRepository.deleteInBatch(oldest);
+			return oldest;
+		});
+		for (FcmDeadLetter letter : letters) {
+			OrderNotification notification = new OrderNotification(letter.getFireBaseId(), letter.getOrderId(), letter.getOrderNo(),
+					letter.getOrderStatus(), letter.getCreatedBy());
+			schedule(new Delivery(notification, letter.getToken(), letter.getMessage(), 0), letter.getLastError());
+		}
+		logger.info("FcmRetryScheduler.replay: {} dead letters replayed", letters.size());
+		return letters.size();
+	}
+
+	/** Replays up to {@code push.notification.retry.replay-limit} dead letters, e.g. after an FCM outage. */
+	@Scheduled(cron = "${push.notification.retry.replay-cron:0 */15 * * * *}")
+	public void replayDeadLetters() {
+		if (enabled && deadLetterRepository.count() > 0) {
+			replay(replayLimit);
+		}
+	}
+
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	public long getRecoveredCount() {
+		return recovered.get();
+	}
+
+	public long getDeadLetteredCount() {
+		return deadLettered.get();
+	}
+
+	private void schedule(Delivery delivery, String error) {
+		if (delivery.attempts >= maxAttempts) {
+			deadLetter(delivery, error);
+			return;
+		}
+		if (pending.incrementAndGet() > maxPending) {
+			pending.decrementAndGet();
+			deadLetter(delivery, error);
+			return;
+		}
+		try {
+			timer.schedule(() -> submit(delivery), backoff(delivery.attempts), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			pending.decrementAndGet();
+		}
+	}
+
+	private void submit(Delivery delivery) {
+		try {
+			senders.execute(() -> attempt(delivery));
+		} catch (RejectedExecutionException e) {
+			pending.decrementAndGet();
+		}
+	}
+
+	private void attempt(Delivery delivery) {
+		pending.decrementAndGet();
+		Delivery next = new Delivery(delivery.notification, delivery.token, delivery.message, delivery.attempts + 1);
+		if (!circuitBreaker.tryAcquire()) {
+			schedule(next, "FCM circuit open");
+			return;
+		}
+		PushNotificationRequest request = templates.render(delivery.notification).toRequest(delivery.token);
+		try {
+			fcmService.sendMessage(request);
+			circuitBreaker.recordSuccess();
+			recovered.incrementAndGet();
+		} catch (ExecutionException e) {
+			if (FcmErrorClassifier.classify(e.getCause()) == FcmErrorClassifier.Kind.INVALID_TOKEN) {
+				circuitBreaker.recordSuccess();
+				deviceTokenCache.prune(delivery.notification.getFireBaseId(), delivery.token);
+				return;
+			}
+			circuitBreaker.recordFailure();
+			schedule(next, e.getCause().getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			logger.error("FcmRetryScheduler: retry of order {} failed", delivery.notification.getOrderId(), e);
+			writeBuffer.write(new FirebaseLog(delivery.token, delivery.message, e.getMessage()));
+		}
+	}
+
+	/** Equal jitter: half the capped exponential delay plus a random part of the other half. */
+	private long backoff(int attempts) {
+		long cap = Math.min(maxDelayMs, baseDelayMs << Math.min(attempts, 20));
+		return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+	}
+
+	private void deadLetter(Delivery delivery, String error) {
+		FcmDeadLetter letter = new FcmDeadLetter();
+		letter.setToken(delivery.token);
+		letter.setFireBaseId(delivery.notification.getFireBaseId());
+		letter.setOrderId(delivery.notification.getOrderId());
+		letter.setOrderNo(delivery.notification.getOrderNo());
+		letter.setOrderStatus(delivery.notification.getStatus());
+		letter.setCreatedBy(delivery.notification.getCreatedBy());
+		letter.setMessage(delivery.message);
+		letter.setAttempts(delivery.attempts);
+		letter.setLastError(error == null || error.length() <= 1000 ? error : error.substring(0, 1000));
+		letter.setCreatedAt(new Date());
+		try {
+			deadLetterRepository.save(letter);
+			deadLettered.incrementAndGet();
+			logger.warn("FcmRetryScheduler: send of order {} dead-lettered after {} attempts: {}", letter.getOrderId(), letter.getAttempts(), error);
+		} catch (RuntimeException e) {
+			logger.error("FcmRetryScheduler: cannot store dead letter of order {}", letter.getOrderId(), e);
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package com.dsoft.m2u.push.notification.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.dsoft.m2u.domain.OrderStatus;
+import com.dsoft.m2u.event.OrderNotification;
+
+/**
+ * Holds order notifications for {@code push.notification.coalesce.window-ms}
+ * before handing them to the {@link PushNotificationDispatcher}.<br>
+ * Notifications for the same order and recipient that arrive within the window
+ * collapse into the latest one, so a quick NEW, PAID, APPROVED sequence reaches
+ * each device once, with the final status. A status that was already delivered
+ * for the order and recipient recently is not sent again. Windows are closed
+ * every {@code push.notification.coalesce.tick-ms}, and all notifications due
+ * in one tick are handed to the dispatcher as one batch, sharing FCM requests
+ * across users. {@link #submitNow} skips the window for callers that already
+ * batch. Every caller gets a future that completes with the outcome of the
+ * delivery that covered its notification.
+ */
+@Component
+public class NotificationCoalescer {
+
+	private static final Logger logger = LogManager.getLogger(NotificationCoalescer.class);
+
+	@Autowired
+	private PushNotificationDispatcher dispatcher;
+
+	@Value("${push.notification.coalesce.window-ms:2000}")
+	private long windowMs;
+
+	@Value("${push.notification.coalesce.tick-ms:200}")
+	private long tickMs;
+
+	@Value("${push.notification.coalesce.dedup-size:10000}")
+	private int dedupSize;
+
+	private ScheduledExecutorService scheduler;
+
+	private final ConcurrentMap<String, Pending> pending = new ConcurrentHashMap<>();
+
+	/** Last delivered status per order and recipient, least recently used first. */
+	private final Map<String, OrderStatus> delivered = new LinkedHashMap<String, OrderStatus>(256, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, OrderStatus> eldest) {
+			return size() > dedupSize;
+		}
+	};
+
+	private final AtomicLong coalesced = new AtomicLong();
+
+	private final AtomicLong duplicates = new AtomicLong();
+
+	private static final class Pending {
+
+		private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+		private final long dueAt;
+		private OrderNotification latest;
+
+		private Pending(OrderNotification latest, long dueAt) {
+			this.latest = latest;
+			this.dueAt = dueAt;
+		}
+	}
+
+	@PostConstruct
+	public void init() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "push-coalesce");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				flush(false);
+			} catch (RuntimeException e) {
+				// keep ticking; an exception would cancel the schedule
+				logger.error("NotificationCoalescer: flush failed", e);
+			}
+		}, tickMs, tickMs, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		// deliver what is held instead of waiting out the window
+		scheduler.shutdownNow();
+		flush(true);
+	}
+
+	public CompletableFuture<Boolean> submit(OrderNotification notification) {
+		if (windowMs <= 0) {
+			return dispatcher.submit(notification);
+		}
+		String key = notification.getFireBaseId() + ":" + notification.getOrderId();
+		Pending created = new Pending(notification, System.currentTimeMillis() + windowMs);
+		Pending existing = pending.putIfAbsent(key, created);
+		if (existing == null) {
+			return created.result;
+		}
+		synchronized (existing) {
+			if (pending.get(key) == existing) {
+				existing.latest = notification;
+				coalesced.incrementAndGet();
+				return existing.result;
+			}
+		}
+		// the window closed meanwhile
+		return submit(notification);
+	}
+
+	/**
+	 * Sends the notifications at once, as one batch, without waiting for a
+	 * window. For callers that already batch, like the outbox relay.
+	 * Notifications for the same order and recipient still collapse into the
+	 * latest one, also with a notification held by {@link #submit}, and the
+	 * delivered-status check still applies.
+	 *
+	 * @return one future per notification, in input order
+	 */
+	public List<CompletableFuture<Boolean>> submitNow(List<OrderNotification> notifications) {
+		Map<String, Pending> batch = new LinkedHashMap<>();
+		List<CompletableFuture<Boolean>> results = new ArrayList<>(notifications.size());
+		for (OrderNotification notification : notifications) {
+			String key = notification.getFireBaseId() + ":" + notification.getOrderId();
+			Pending entry = batch.get(key);
+			if (entry != null) {
+				entry.latest = notification;
+				coalesced.incrementAndGet();
+				results.add(entry.result);
+				continue;
+			}
+			entry = new Pending(notification, 0L);
+			batch.put(key, entry);
+			Pending held = pending.get(key);
+			if (held != null) {
+				synchronized (held) {
+					if (pending.remove(key, held)) {
+						// the held notification is older; its caller gets this delivery's outcome
+						entry.result.whenComplete((ok, e) -> held.result.complete(Boolean.TRUE.equals(ok)));
+						coalesced.incrementAndGet();
+					}
+				}
+			}
+			results.add(entry.result);
+		}
+		dispatch(batch);
+		return results;
+	}
+
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	public long getDuplicateCount() {
+		return duplicates.get();
+	}
+
+	/** Hands the notifications whose window has closed, or all if {@code all}, to the dispatcher. */
+	private void flush(boolean all) {
+		long now = System.currentTimeMillis();
+		Map<String, Pending> due = new LinkedHashMap<>();
+		for (Map.Entry<String, Pending> candidate : pending.entrySet()) {
+			String key = candidate.getKey();
+			Pending entry = candidate.getValue();
+			if (!all && entry.dueAt > now) {
+				continue;
+			}
+			synchronized (entry) {
+				if (pending.remove(key, entry)) {
+					due.put(key, entry);
+				}
+			}
+		}
+		dispatch(due);
+	}
+
+	/** Sends the entries, which no other thread can reach any more, as one batch. */
+	private void dispatch(Map<String, Pending> due) {
+		List<String> keys = new ArrayList<>();
+		List<Pending> entries = new ArrayList<>();
+		List<OrderNotification> notifications = new ArrayList<>();
+		for (Map.Entry<String, Pending> candidate : due.entrySet()) {
+			String key = candidate.getKey();
+			Pending entry = candidate.getValue();
+			OrderNotification notification = entry.latest;
+			synchronized (delivered) {
+				if (notification.getStatus() == delivered.get(key)) {
+					duplicates.incrementAndGet();
+					entry.result.complete(true);
+					continue;
+				}
+			}
+			keys.add(key);
+			entries.add(entry);
+			notifications.add(notification);
+		}
+		if (notifications.isEmpty()) {
+			return;
+		}
+		List<CompletableFuture<Boolean>> results = dispatcher.submitAll(notifications);
+		for (int i = 0; i < results.size(); i++) {
+			String key = keys.get(i);
+			Pending entry = entries.get(i);
+			OrderNotification notification = notifications.get(i);
+			results.get(i).whenComplete((ok, e) -> {
+				if (Boolean.TRUE.equals(ok)) {
+					synchronized (delivered) {
+						delivered.put(key, notification.getStatus());
+					}
+				}
+				if (e != null) {
+					logger.warn("NotificationCoalescer: delivery of order {} failed", notification.getOrderId(), e);
+					entry.result.complete(false);
+				} else {
+					entry.result.complete(ok);
+				}
+			});
+		}
+	}
+}
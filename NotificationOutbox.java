@@ -0,0 +1,88 @@
+package com.dsoft.m2u.domain;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.annotations.GenericGenerator;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Order notification written in the same transaction as the order change and
+ * delivered later by the outbox relay.
+ */
+@Entity
+@Table(name = "notification_outbox", indexes = {
+		@Index(name = "idx_notification_outbox_status_available", columnList = "status, available_at") })
+@Getter
+@Setter
+@NoArgsConstructor
+public class NotificationOutbox {
+
+	@Id
+	@GeneratedValue(generator = "uuid")
+	@GenericGenerator(name = "uuid", strategy = "uuid2")
+	private String id;
+
+	@Column(name = "fire_base_id")
+	private String fireBaseId;
+
+	@Column(name = "order_id", nullable = false)
+	private String orderId;
+
+	@Column(name = "order_no")
+	private String orderNo;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "order_status", nullable = false)
+	private OrderStatus orderStatus;
+
+	@Column(name = "created_by")
+	private String createdBy;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "status", nullable = false)
+	private NotificationOutboxStatus status;
+
+	@Column(name = "attempts", nullable = false)
+	private int attempts;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "available_at", nullable = false)
+	private Date availableAt;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "locked_until")
+	private Date lockedUntil;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "processed_at")
+	private Date processedAt;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "created_at", nullable = false)
+	private Date createdAt;
+
+	public NotificationOutbox(String fireBaseId, Order order) {
+		this.fireBaseId = fireBaseId;
+		this.orderId = order.getId();
+		this.orderNo = order.getOrderNo();
+		this.orderStatus = order.getStatus();
+		this.createdBy = order.getCreatedBy();
+		this.status = NotificationOutboxStatus.PENDING;
+		this.createdAt = new Date();
+		this.availableAt = this.createdAt;
+	}
+}
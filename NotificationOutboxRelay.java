@@ -0,0 +1,198 @@
+package com.dsoft.m2u.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.dsoft.m2u.domain.NotificationOutbox;
+import com.dsoft.m2u.event.OrderNotification;
+import com.dsoft.m2u.push.notification.service.NotificationCoalescer;
+import com.dsoft.m2u.repository.NotificationOutboxRepository;
+/**
+ * [Description]: Relays outbox rows to push notification delivery.<br>
+ * [ Remarks ]: Rows are claimed in batches with SKIP LOCKED so several nodes
+ * can relay concurrently. A claimed row carries a lease; if the node dies
+ * before marking it done, the row is reclaimed once the lease expires.<br>
+ * Polling runs on the relay's own thread rather than on the shared task
+ * scheduler. It does not wait for delivery: each batch is marked done or
+ * retried when its futures complete, or after half the lease for the ones
+ * still open, and at most {@code push.notification.outbox.max-in-flight}
+ * batches are out at once.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ * 
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Component
+public class NotificationOutboxRelay {
+
+	private static final Logger logger = LogManager.getLogger(NotificationOutboxRelay.class);
+
+	@Autowired
+	private NotificationOutboxRepository notificationOutboxRepository;
+
+	@Autowired
+	private NotificationCoalescer coalescer;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${push.notification.outbox.poll-interval-ms:1000}")
+	private long pollIntervalMs;
+
+	@Value("${push.notification.outbox.max-in-flight:4}")
+	private int maxInFlight;
+
+	@Value("${push.notification.outbox.batch-size:100}")
+	private int batchSize;
+
+	@Value("${push.notification.outbox.lease-ms:60000}")
+	private long leaseMs;
+
+	@Value("${push.notification.outbox.retry-delay-ms:30000}")
+	private long retryDelayMs;
+
+	@Value("${push.notification.outbox.max-attempts:10}")
+	private int maxAttempts;
+
+	@Value("${push.notification.outbox.retention-hours:24}")
+	private int retentionHours;
+
+	private TransactionTemplate transactionTemplate;
+
+	private ScheduledExecutorService relayExecutor;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	@PostConstruct
+	public void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		relayExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "push-outbox-relay");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		relayExecutor.scheduleWithFixedDelay(this::relay, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		// rows of open batches keep their lease and are reclaimed after it
+		relayExecutor.shutdownNow();
+	}
+
+	public void relay() {
+		try {
+			while (inFlight.get() < maxInFlight && relayBatch() == batchSize) {
+				// a full batch means more rows are waiting
+			}
+		} catch (RuntimeException e) {
+			// an exception would cancel the fixed-delay schedule
+			logger.error("NotificationOutboxRelay.relay: failed", e);
+		}
+	}
+
+	@Scheduled(cron = "${push.notification.outbox.cleanup-cron:0 0 * * * *}")
+	public void cleanup() {
+		Date before = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(retentionHours));
+		Integer deleted = transactionTemplate.execute(status -> notificationOutboxRepository.deleteDoneBefore(before));
+		logger.info("NotificationOutboxRelay.cleanup: deleted {} rows", deleted);
+	}
+
+	private int relayBatch() {
+		Date now = new Date();
+		List<NotificationOutbox> rows = transactionTemplate.execute(status -> {
+			List<String> ids = notificationOutboxRepository.lockDeliverable(now, batchSize);
+			if (ids.isEmpty()) {
+				return Collections.<NotificationOutbox>emptyList();
+			}
+			notificationOutboxRepository.markProcessing(ids, new Date(now.getTime() + leaseMs));
+			return notificationOutboxRepository.findAllById(ids);
+		});
+		if (rows.isEmpty()) {
+			return 0;
+		}
+
+		List<OrderNotification> notifications = new ArrayList<>(rows.size());
+		for (NotificationOutbox row : rows) {
+			notifications.add(new OrderNotification(row.getFireBaseId(), row.getOrderId(), row.getOrderNo(), row.getOrderStatus(),
+					row.getCreatedBy()));
+		}
+		// the batch is already collected; waiting out the coalesce window would only cap throughput
+		List<CompletableFuture<Boolean>> futures = coalescer.submitNow(notifications);
+		inFlight.incrementAndGet();
+		AtomicBoolean finished = new AtomicBoolean();
+		ScheduledFuture<?> timeout = relayExecutor.schedule(() -> finish(rows, futures, finished), leaseMs / 2, TimeUnit.MILLISECONDS);
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenCompleteAsync((ignored, e) -> {
+			timeout.cancel(false);
+			finish(rows, futures, finished);
+		}, relayExecutor);
+		return rows.size();
+	}
+
+	/**
+	 * Marks the delivered rows done and schedules the rest for a retry. Runs once
+	 * per batch on the relay thread, when all futures are complete or the batch
+	 * timed out, whichever comes first.
+	 */
+	private void finish(List<NotificationOutbox> rows, List<CompletableFuture<Boolean>> futures, AtomicBoolean finished) {
+		if (!finished.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			List<String> done = new ArrayList<>();
+			List<String> failed = new ArrayList<>();
+			for (int i = 0; i < rows.size(); i++) {
+				if (Boolean.TRUE.equals(futures.get(i).getNow(false))) {
+					done.add(rows.get(i).getId());
+				} else {
+					failed.add(rows.get(i).getId());
+				}
+			}
+			transactionTemplate.execute(status -> {
+				if (!done.isEmpty()) {
+					notificationOutboxRepository.markDone(done, new Date());
+				}
+				if (!failed.isEmpty()) {
+					notificationOutboxRepository.markRetry(failed, new Date(System.currentTimeMillis() + retryDelayMs));
+					notificationOutboxRepository.markFailed(failed, maxAttempts);
+				}
+				return null;
+			});
+			if (!failed.isEmpty()) {
+				logger.warn("NotificationOutboxRelay: {} of {} notifications will be retried", failed.size(), rows.size());
+			}
+		} catch (RuntimeException e) {
+			// the rows keep their lease and are relayed again once it expires
+			logger.error("NotificationOutboxRelay: batch state not saved", e);
+		} finally {
+			inFlight.decrementAndGet();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,52 @@
+package com.dsoft.m2u.repository;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.dsoft.m2u.domain.NotificationOutbox;
+
+@Repository
+public interface NotificationOutboxRepository extends JpaRepository<NotificationOutbox, String> {
+
+	/**
+	 * Locks up to {@code limit} deliverable rows, skipping rows already locked by
+	 * another relay. Rows stuck in PROCESSING past their lease are reclaimed.
+	 */
+	@Query(value = "SELECT id FROM notification_outbox "
+			+ "WHERE (status = 'PENDING' AND available_at <= :now) "
+			+ "OR (status = 'PROCESSING' AND locked_until < :now) "
+			+ "ORDER BY created_at LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+	List<String> lockDeliverable(@Param("now") Date now, @Param("limit") int limit);
+
+	@Modifying
+	@Query("update NotificationOutbox o set o.status = com.dsoft.m2u.domain.NotificationOutboxStatus.PROCESSING, "
+			+ "o.lockedUntil = :lockedUntil where o.id in :ids")
+	int markProcessing(@Param("ids") Collection<String> ids, @Param("lockedUntil") Date lockedUntil);
+
+	@Modifying
+	@Query("update NotificationOutbox o set o.status = com.dsoft.m2u.domain.NotificationOutboxStatus.DONE, "
+			+ "o.lockedUntil = null, o.processedAt = :now where o.id in :ids")
+	int markDone(@Param("ids") Collection<String> ids, @Param("now") Date now);
+
+	@Modifying
+	@Query("update NotificationOutbox o set o.status = com.dsoft.m2u.domain.NotificationOutboxStatus.PENDING, "
+			+ "o.attempts = o.attempts + 1, o.lockedUntil = null, o.availableAt = :retryAt where o.id in :ids")
+	int markRetry(@Param("ids") Collection<String> ids, @Param("retryAt") Date retryAt);
+
+	@Modifying
+	@Query("update NotificationOutbox o set o.status = com.dsoft.m2u.domain.NotificationOutboxStatus.FAILED "
+			+ "where o.id in :ids and o.attempts >= :maxAttempts")
+	int markFailed(@Param("ids") Collection<String> ids, @Param("maxAttempts") int maxAttempts);
+
+	@Modifying
+	@Query("delete from NotificationOutbox o where o.status = com.dsoft.m2u.domain.NotificationOutboxStatus.DONE "
+			+ "and o.processedAt < :before")
+	int deleteDoneBefore(@Param("before") Date before);
+}
@@ -0,0 +1,44 @@
+package com.dsoft.m2u.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.dsoft.m2u.domain.NotificationOutbox;
+import com.dsoft.m2u.domain.Order;
+import com.dsoft.m2u.repository.NotificationOutboxRepository;
+/**
+ * [Description]: Records order notifications in the outbox table.<br>
+ * [ Remarks ]: Must join the transaction that changes the order, so a
+ * notification is stored if and only if the order change commits.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ * 
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Service
+public class NotificationOutboxService {
+
+	@Autowired
+	private NotificationOutboxRepository notificationOutboxRepository;
+
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void enqueue(String fireBaseId, Order order) {
+		notificationOutboxRepository.save(new NotificationOutbox(fireBaseId, order));
+	}
+
+	/** Enqueues one notification per order, addressed to the order's creator. */
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void enqueueAll(Collection<Order> orders) {
+		List<NotificationOutbox> entries = new ArrayList<>(orders.size());
+		for (Order order : orders) {
+			entries.add(new NotificationOutbox(order.getCreatedBy(), order));
+		}
+		notificationOutboxRepository.saveAll(entries);
+	}
+}
@@ -0,0 +1,5 @@
+package com.dsoft.m2u.domain;
+
+public enum NotificationOutboxStatus {
+	PENDING, PROCESSING, DONE, FAILED
+}
@@ -0,0 +1,256 @@
+package com.dsoft.m2u.push.notification.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import com.dsoft.m2u.api.request.PushNotificationRequest;
+import com.dsoft.m2u.domain.LanguageCode;
+import com.dsoft.m2u.domain.OrderStatus;
+import com.dsoft.m2u.event.OrderNotification;
+
+/**
+ * Title and message templates of order notifications per {@link OrderStatus}
+ * and {@link LanguageCode}.<br>
+ * Templates are compiled once at startup into literal parts and placeholders
+ * ({@code {orderNo}}, {@code {orderId}}), and the static part of the data
+ * payload is built once per status, so rendering is a few appends and two map
+ * entries. The built-in texts can be overridden, and templates for other
+ * statuses added, with the properties
+ * {@code push.notification.template.<STATUS>.<LANGUAGE>.title} and
+ * {@code .message}. A missing language falls back to
+ * {@code push.notification.template.default-language}.<br>
+ * Notifications are rendered in the default language: no language is stored
+ * for users or devices yet. Templates are keyed by status, so a notification
+ * that is not a status change, such as a payment reminder, needs its own key
+ * before it can be added here.
+ */
+@Component
+public class NotificationTemplateRegistry {
+
+	private static final Logger logger = LogManager.getLogger(NotificationTemplateRegistry.class);
+
+	private static final String PREFIX = "push.notification.template.";
+
+	private static final String DEFAULT_TITLE = "Đơn hàng {orderNo}";
+
+	private static final Map<OrderStatus, String> DEFAULT_MESSAGES_VI = new EnumMap<>(OrderStatus.class);
+
+	private static final Map<OrderStatus, String> DEFAULT_MESSAGES_EN = new EnumMap<>(OrderStatus.class);
+
+	static {
+		DEFAULT_MESSAGES_VI.put(OrderStatus.NEW, "Đã tạo mới");
+		DEFAULT_MESSAGES_VI.put(OrderStatus.PAID, "Đã thanh toán thành công. Vui lòng chờ kiểm duyệt.");
+		DEFAULT_MESSAGES_VI.put(OrderStatus.APPROVED, "Đã được chấp nhận.");
+		DEFAULT_MESSAGES_VI.put(OrderStatus.REJECTED, "Đã bị từ chối.");
+		DEFAULT_MESSAGES_VI.put(OrderStatus.CANCELLED, "Đã bị hủy.");
+		DEFAULT_MESSAGES_EN.put(OrderStatus.NEW, "Created");
+		DEFAULT_MESSAGES_EN.put(OrderStatus.PAID, "Paid successfully. Please wait for approval.");
+		DEFAULT_MESSAGES_EN.put(OrderStatus.APPROVED, "Approved.");
+		DEFAULT_MESSAGES_EN.put(OrderStatus.REJECTED, "Rejected.");
+		DEFAULT_MESSAGES_EN.put(OrderStatus.CANCELLED, "Cancelled.");
+	}
+
+	@Autowired
+	private Environment environment;
+
+	@Value("${push.notification.template.default-language:VI}")
+	private LanguageCode defaultLanguage;
+
+	private final Map<OrderStatus, Map<LanguageCode, Template>> templates = new EnumMap<>(OrderStatus.class);
+
+	/** A notification rendered for one status, order and language. */
+	public static final class Rendered {
+
+		private final String title;
+		private final String message;
+		private final Map<String, String> data;
+
+		private Rendered(String title, String message, Map<String, String> data) {
+			this.title = title;
+			this.message = message;
+			this.data = data;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public PushNotificationRequest toRequest(String token) {
+			PushNotificationRequest request = new PushNotificationRequest();
+			request.setTitle(title);
+			request.setTopic("Me2u");
+			request.setMessage(message);
+			request.setToken(token);
+			request.setData(data);
+			request.setCustomerDataPayload(Collections.<String, Object>unmodifiableMap(data));
+			return request;
+		}
+	}
+
+	@PostConstruct
+	public void init() {
+		int count = 0;
+		for (OrderStatus status : OrderStatus.values()) {
+			Map<String, String> staticData = new HashMap<>();
+			staticData.put("type", "ORDER");
+			staticData.put("status", status.toString());
+			staticData.put("content", "Content not yet define :)");
+			Map<LanguageCode, Template> byLanguage = new EnumMap<>(LanguageCode.class);
+			for (LanguageCode language : LanguageCode.values()) {
+				String title = environment.getProperty(PREFIX + status + "." + language + ".title");
+				String message = environment.getProperty(PREFIX + status + "." + language + ".message", defaultMessage(status, language));
+				if (message == null && title == null) {
+					continue;
+				}
+				byLanguage.put(language, new Template(compile(title == null ? DEFAULT_TITLE : title),
+						compile(message == null ? "" : message), staticData));
+			}
+			if (!byLanguage.containsKey(defaultLanguage)) {
+				// no text for this status; keep the title so the device still shows the order
+				byLanguage.put(defaultLanguage, new Template(compile(DEFAULT_TITLE), compile(""), staticData));
+			}
+			templates.put(status, byLanguage);
+			count += byLanguage.size();
+		}
+		logger.info("NotificationTemplateRegistry: {} templates compiled", count);
+	}
+
+	/** Renders the notification in the default language. */
+	public Rendered render(OrderNotification notification) {
+		return render(notification, defaultLanguage);
+	}
+
+	/** Renders the notification in {@code language}, or the default language if it is null or has no template. */
+	public Rendered render(OrderNotification notification, LanguageCode language) {
+		Map<LanguageCode, Template> byLanguage = templates.get(notification.getStatus());
+		Template template = byLanguage.get(language);
+		if (template == null) {
+			template = byLanguage.get(defaultLanguage);
+		}
+		return template.render(notification);
+	}
+
+	private static String defaultMessage(OrderStatus status, LanguageCode language) {
+		if (language == LanguageCode.VI) {
+			return DEFAULT_MESSAGES_VI.get(status);
+		}
+		if (language == LanguageCode.EN) {
+			return DEFAULT_MESSAGES_EN.get(status);
+		}
+		return null;
+	}
+
+	private enum Placeholder {
+		ORDER_NO("orderNo"), ORDER_ID("orderId");
+
+		private final String key;
+
+		Placeholder(String key) {
+			this.key = key;
+		}
+
+		private String valueOf(OrderNotification notification) {
+			String value = this == ORDER_NO ? notification.getOrderNo() : notification.getOrderId();
+			return value == null ? "" : value;
+		}
+	}
+
+	/**
+	 * A template split into literals and placeholders: literals[i] is followed
+	 * by placeholders[i], the last literal by nothing.
+	 */
+	private static final class Compiled {
+
+		private final String[] literals;
+		private final Placeholder[] placeholders;
+		private final int length;
+
+		private Compiled(String[] literals, Placeholder[] placeholders) {
+			this.literals = literals;
+			this.placeholders = placeholders;
+			int total = 0;
+			for (String literal : literals) {
+				total += literal.length();
+			}
+			this.length = total;
+		}
+
+		private String render(OrderNotification notification) {
+			if (placeholders.length == 0) {
+				return literals[0];
+			}
+			StringBuilder builder = new StringBuilder(length + 16 * placeholders.length);
+			for (int i = 0; i < placeholders.length; i++) {
+				builder.append(literals[i]).append(placeholders[i].valueOf(notification));
+			}
+			return builder.append(literals[placeholders.length]).toString();
+		}
+	}
+
+	private static Compiled compile(String text) {
+		List<String> literals = new ArrayList<>();
+		List<Placeholder> placeholders = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < text.length()) {
+			Placeholder placeholder = text.charAt(i) == '{' ? placeholderAt(text, i) : null;
+			if (placeholder == null) {
+				literal.append(text.charAt(i++));
+				continue;
+			}
+			literals.add(literal.toString());
+			literal.setLength(0);
+			placeholders.add(placeholder);
+			i += placeholder.key.length() + 2;
+		}
+		literals.add(literal.toString());
+		return new Compiled(literals.toArray(new String[0]), placeholders.toArray(new Placeholder[0]));
+	}
+
+	private static Placeholder placeholderAt(String text, int open) {
+		for (Placeholder placeholder : Placeholder.values()) {
+			if (text.startsWith(placeholder.key + "}", open + 1)) {
+				return placeholder;
+			}
+		}
+		return null;
+	}
+
+	private static final class Template {
+
+		private final Compiled title;
+		private final Compiled message;
+		private final Map<String, String> staticData;
+
+		private Template(Compiled title, Compiled message, Map<String, String> staticData) {
+			this.title = title;
+			this.message = message;
+			this.staticData = staticData;
+		}
+
+		private Rendered render(OrderNotification notification) {
+			Map<String, String> data = new HashMap<>(staticData.size() * 2 + 4);
+			data.putAll(staticData);
+			data.put("id", notification.getOrderId());
+			data.put("orderNo", notification.getOrderNo());
+			return new Rendered(title.render(notification), message.render(notification), Collections.unmodifiableMap(data));
+		}
+	}
+}
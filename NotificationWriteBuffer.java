@@ -0,0 +1,163 @@
+package com.dsoft.m2u.push.notification.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.dsoft.m2u.domain.FirebaseLog;
+import com.dsoft.m2u.domain.Notification;
+import com.dsoft.m2u.repository.FirebaseLogRepository;
+import com.dsoft.m2u.repository.NotificationRepository;
+
+/**
+ * Write-behind buffer for the {@link FirebaseLog} and {@link Notification}
+ * rows produced while delivering push notifications.<br>
+ * Rows are queued in bounded queues and inserted with {@code saveAll} in
+ * batches of {@code push.notification.write-buffer.batch-size}, when a batch
+ * is full or every {@code push.notification.write-buffer.flush-ms}. A full
+ * queue drops the new row and counts it. Everything queued is written on
+ * shutdown.
+ */
+@Component
+public class NotificationWriteBuffer {
+
+	private static final Logger logger = LogManager.getLogger(NotificationWriteBuffer.class);
+
+	@Autowired
+	private FirebaseLogRepository firebaseLogRepository;
+
+	@Autowired
+	private NotificationRepository notificationRepository;
+
+	@Value("${push.notification.write-buffer.capacity:10000}")
+	private int capacity;
+
+	@Value("${push.notification.write-buffer.batch-size:200}")
+	private int batchSize;
+
+	private BlockingQueue<FirebaseLog> firebaseLogs;
+
+	private BlockingQueue<Notification> notifications;
+
+	private ExecutorService writer;
+
+	private final AtomicBoolean flushQueued = new AtomicBoolean();
+
+	private final AtomicLong written = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+		firebaseLogs = new ArrayBlockingQueue<>(capacity);
+		notifications = new ArrayBlockingQueue<>(capacity);
+		writer = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "push-write-buffer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		writer.shutdown();
+		writer.awaitTermination(30, TimeUnit.SECONDS);
+		flush();
+		logger.info("NotificationWriteBuffer: {} rows written, {} dropped, {} failed", written.get(), dropped.get(), failed.get());
+	}
+
+	public void write(FirebaseLog firebaseLog) {
+		offer(firebaseLogs, firebaseLog);
+	}
+
+	public void write(Notification notification) {
+		offer(notifications, notification);
+	}
+
+	@Scheduled(fixedDelayString = "${push.notification.write-buffer.flush-ms:1000}")
+	public void scheduledFlush() {
+		queueFlush();
+	}
+
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	public int getQueuedCount() {
+		return firebaseLogs.size() + notifications.size();
+	}
+
+	private <T> void offer(BlockingQueue<T> queue, T row) {
+		if (!queue.offer(row)) {
+			if (dropped.incrementAndGet() % 1000 == 1) {
+				logger.warn("NotificationWriteBuffer: queue full, {} rows dropped so far", dropped.get());
+			}
+			return;
+		}
+		if (queue.size() >= batchSize) {
+			queueFlush();
+		}
+	}
+
+	private void queueFlush() {
+		if (writer.isShutdown() || !flushQueued.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			writer.execute(() -> {
+				flushQueued.set(false);
+				flush();
+			});
+		} catch (RejectedExecutionException e) {
+			// shutting down; the final flush writes the rows
+			flushQueued.set(false);
+		}
+	}
+
+	private synchronized void flush() {
+		drain(firebaseLogs, firebaseLogRepository);
+		drain(notifications, notificationRepository);
+	}
+
+	private <T> void drain(BlockingQueue<T> queue, CrudRepository<T, ?> repository) {
+		List<T> batch = new ArrayList<>(batchSize);
+		while (queue.drainTo(batch, batchSize) > 0) {
+			try {
+				repository.saveAll(batch);
+				written.addAndGet(batch.size());
+			} catch (RuntimeException e) {
+				failed.addAndGet(batch.size());
+				logger.error("NotificationWriteBuffer: failed to write {} rows", batch.size(), e);
+			}
+			batch.clear();
+		}
+	}
+}
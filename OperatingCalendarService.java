@@ -0,0 +1,226 @@
+package com.dsoft.m2u.service;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.dsoft.m2u.api.dto.MobileTimeRejectResDTO;
+import com.dsoft.m2u.domain.SlotType;
+import com.dsoft.m2u.domain.TimeConfig;
+import com.dsoft.m2u.domain.TimeConfigType;
+import com.dsoft.m2u.event.ReferenceDataChangedEvent;
+import com.dsoft.m2u.repository.SlotTypeRepository;
+import com.dsoft.m2u.repository.TimeConfigRepository;
+/**
+ * [Description]: Effective closed windows and price condition of each date.<br>
+ * [ Remarks ]: Built from the NOT_USE TimeConfig rows, the per-date special
+ * opening times and the SlotType special dates. Dates within
+ * {@code calendar.horizon-days} are precomputed nightly, other dates on first
+ * use. Everything is dropped when time configs or slot types change, and
+ * entries expire after the reference data TTL; both are described in
+ * ReferenceDataChangePublisher.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ * 
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Service
+public class OperatingCalendarService {
+
+	private static final Logger logger = LogManager.getLogger(OperatingCalendarService.class);
+
+	@Autowired
+	private TimeConfigRepository timeConfigRepository;
+
+	@Autowired
+	private SlotTypeRepository slotTypeRepository;
+
+	@Value("${calendar.horizon-days:60}")
+	private int horizonDays;
+
+	@Value("${reference-data.cache.ttl-seconds:600}")
+	private long ttlSeconds;
+
+	private final ConcurrentMap<LocalDate, CalendarDay> days = new ConcurrentHashMap<>();
+
+	private final AtomicLong generation = new AtomicLong();
+
+	private volatile NotUseWindows notUseWindows;
+
+	private static final class TimeWindow {
+
+		private final LocalTime start;
+		private final LocalTime end;
+
+		private TimeWindow(LocalTime start, LocalTime end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		private MobileTimeRejectResDTO toDTO() {
+			MobileTimeRejectResDTO dto = new MobileTimeRejectResDTO();
+			dto.setTimeStart(start.toString());
+			dto.setTimeEnd(end.toString());
+			return dto;
+		}
+	}
+
+	private static final class NotUseWindows {
+
+		private final List<TimeWindow> windows;
+		private final long loadedAt;
+
+		private NotUseWindows(List<TimeWindow> windows) {
+			this.windows = windows;
+			this.loadedAt = System.currentTimeMillis();
+		}
+	}
+
+	private static final class CalendarDay {
+
+		/** NOT_USE windows shortened by the day's special opening times. */
+		private final List<TimeWindow> windows;
+		/** The windows plus the closed remainders after special opening times. */
+		private final List<TimeWindow> closed;
+		private final String specialConditionPriceId;
+		private final long loadedAt;
+
+		private CalendarDay(List<TimeWindow> windows, List<TimeWindow> closed, String specialConditionPriceId) {
+			this.windows = windows;
+			this.closed = closed;
+			this.specialConditionPriceId = specialConditionPriceId;
+			this.loadedAt = System.currentTimeMillis();
+		}
+	}
+
+	/** @return new DTOs of every closed interval of the date; callers may modify them */
+	public List<MobileTimeRejectResDTO> getClosedIntervals(LocalDate date) {
+		return toDTOs(getDay(date).closed);
+	}
+
+	/** @return new DTOs of the date's NOT_USE windows; callers may modify them */
+	public List<MobileTimeRejectResDTO> getNotUseWindows(LocalDate date) {
+		return toDTOs(getDay(date).windows);
+	}
+
+	/** @return the SlotType id of a special date, or null on an ordinary day */
+	public String getSpecialConditionPriceId(LocalDate date) {
+		return getDay(date).specialConditionPriceId;
+	}
+
+	public void invalidate() {
+		generation.incrementAndGet();
+		notUseWindows = null;
+		days.clear();
+	}
+
+	@EventListener
+	public void onReferenceDataChanged(ReferenceDataChangedEvent event) {
+		if (event.getType() == ReferenceDataChangedEvent.Type.TIME_CONFIG || event.getType() == ReferenceDataChangedEvent.Type.SLOT_TYPE) {
+			invalidate();
+		}
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	@Scheduled(cron = "${calendar.warm-up-cron:0 1 0 * * *}")
+	public void warmUp() {
+		LocalDate today = LocalDate.now();
+		days.keySet().removeIf(date -> date.isBefore(today));
+		for (int i = 0; i < horizonDays; i++) {
+			getDay(today.plusDays(i));
+		}
+		logger.info("OperatingCalendarService.warmUp: {} days cached", days.size());
+	}
+
+	private CalendarDay getDay(LocalDate date) {
+		CalendarDay cached = days.get(date);
+		if (cached != null && !isExpired(cached.loadedAt)) {
+			return cached;
+		}
+		long loadedGeneration = generation.get();
+		CalendarDay day = compute(date);
+		if (generation.get() == loadedGeneration) {
+			if (cached != null) {
+				days.replace(date, cached, day);
+				return day;
+			}
+			CalendarDay existing = days.putIfAbsent(date, day);
+			return existing != null ? existing : day;
+		}
+		return day;
+	}
+
+	private CalendarDay compute(LocalDate date) {
+		List<TimeConfig> specialTimes = timeConfigRepository.getTimeByDate(date.toString());
+		List<TimeWindow> windows = new ArrayList<>();
+		List<TimeWindow> closed = new ArrayList<>();
+		for (TimeWindow notUse : getNotUseWindows()) {
+			LocalTime windowEnd = notUse.end;
+			if (specialTimes != null) {
+				for (TimeConfig specialTime : specialTimes) {
+					// a special opening time inside the NOT_USE window opens the facility from its start
+					if (!specialTime.getTimeStart().isBefore(notUse.start) && specialTime.getTimeStart().isBefore(notUse.end)) {
+						windowEnd = specialTime.getTimeStart();
+						if (specialTime.getTimeEnd().isBefore(notUse.end)) {
+							closed.add(new TimeWindow(specialTime.getTimeEnd(), notUse.end));
+						}
+					}
+				}
+			}
+			TimeWindow window = new TimeWindow(notUse.start, windowEnd);
+			windows.add(window);
+			closed.add(window);
+		}
+
+		String specialConditionPriceId = null;
+		List<SlotType> slotTypes = slotTypeRepository.getSlotTypeBySpecialDate(date.getDayOfMonth(), date.getMonthValue());
+		if (slotTypes != null && !slotTypes.isEmpty()) {
+			specialConditionPriceId = slotTypes.get(0).getId();
+		}
+		return new CalendarDay(Collections.unmodifiableList(windows), Collections.unmodifiableList(closed), specialConditionPriceId);
+	}
+
+	private List<TimeWindow> getNotUseWindows() {
+		NotUseWindows cached = notUseWindows;
+		if (cached != null && !isExpired(cached.loadedAt)) {
+			return cached.windows;
+		}
+		long loadedGeneration = generation.get();
+		List<TimeWindow> windows = new ArrayList<>();
+		for (TimeConfig notUseTime : timeConfigRepository.findAllByTypeAndActive(TimeConfigType.NOT_USE, true)) {
+			windows.add(new TimeWindow(notUseTime.getTimeStart(), notUseTime.getTimeEnd()));
+		}
+		windows = Collections.unmodifiableList(windows);
+		if (generation.get() == loadedGeneration) {
+			notUseWindows = new NotUseWindows(windows);
+		}
+		return windows;
+	}
+
+	private boolean isExpired(long loadedAt) {
+		return System.currentTimeMillis() - loadedAt > TimeUnit.SECONDS.toMillis(ttlSeconds);
+	}
+
+	private static List<MobileTimeRejectResDTO> toDTOs(List<TimeWindow> windows) {
+		List<MobileTimeRejectResDTO> dtos = new ArrayList<>(windows.size());
+		for (TimeWindow window : windows) {
+			dtos.add(window.toDTO());
+		}
+		return dtos;
+	}
+}
@@ -0,0 +1,105 @@
+package com.dsoft.m2u.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.dsoft.m2u.domain.Order;
+import com.dsoft.m2u.domain.Slot;
+import com.dsoft.m2u.domain.Story;
+import com.dsoft.m2u.service.CatalogCache.FacilityView;
+/**
+ * [Description]: Loads everything an order list page renders in a fixed number of queries.<br>
+ * [ Remarks ]: Stories and slots are fetched in one query each; facilities
+ * and templates come from the {@link CatalogCache}, so the DTO builders never
+ * trigger lazy loading per row.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ * 
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Component
+public class OrderBatchLoader {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Autowired
+	private CatalogCache catalogCache;
+
+	public static final class OrderBatch {
+
+		private final Map<String, List<Story>> stories;
+		private final Map<String, List<Slot>> slots;
+		private final Map<String, FacilityView> facilities;
+
+		private OrderBatch(Map<String, List<Story>> stories, Map<String, List<Slot>> slots, Map<String, FacilityView> facilities) {
+			this.stories = stories;
+			this.slots = slots;
+			this.facilities = facilities;
+		}
+
+		public List<Story> storiesOf(Order order) {
+			return stories.getOrDefault(order.getId(), Collections.emptyList());
+		}
+
+		public List<Slot> slotsOf(Order order) {
+			return slots.getOrDefault(order.getId(), Collections.emptyList());
+		}
+
+		public FacilityView facilityOf(Order order) {
+			return facilities.get(order.getFacility().getId());
+		}
+	}
+
+	public OrderBatch load(List<Order> orders, boolean withSlots) {
+		if (orders.isEmpty()) {
+			return new OrderBatch(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+		}
+		List<String> orderIds = new ArrayList<>(orders.size());
+		Set<String> facilityIds = new LinkedHashSet<>();
+		for (Order order : orders) {
+			orderIds.add(order.getId());
+			facilityIds.add(order.getFacility().getId());
+		}
+		return new OrderBatch(loadStories(orderIds),
+				withSlots ? loadActiveSlots(orderIds) : Collections.emptyMap(),
+				catalogCache.getFacilities(facilityIds));
+	}
+
+	private Map<String, List<Story>> loadStories(Collection<String> orderIds) {
+		List<Story> stories = entityManager.createQuery("select s from Story s "
+				+ "where s.order.id in :orderIds order by s.priority", Story.class)
+				.setParameter("orderIds", orderIds)
+				.getResultList();
+		Map<String, List<Story>> result = new HashMap<>();
+		for (Story story : stories) {
+			result.computeIfAbsent(story.getOrder().getId(), id -> new ArrayList<>()).add(story);
+		}
+		return result;
+	}
+
+	/** @return the active slots of the orders, by order id */
+	public Map<String, List<Slot>> loadActiveSlots(Collection<String> orderIds) {
+		List<Slot> slots = entityManager.createQuery("select s from Slot s "
+				+ "where s.order.id in :orderIds and s.active = true order by s.dateDisplay, s.timeStart", Slot.class)
+				.setParameter("orderIds", orderIds)
+				.getResultList();
+		Map<String, List<Slot>> result = new HashMap<>();
+		for (Slot slot : slots) {
+			result.computeIfAbsent(slot.getOrder().getId(), id -> new ArrayList<>()).add(slot);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,134 @@
+package com.dsoft.m2u.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+import org.springframework.stereotype.Component;
+
+import com.dsoft.m2u.domain.Order;
+import com.dsoft.m2u.domain.OrderStatus;
+/**
+ * [Description]: Set-based reads and writes over a list of orders.<br>
+ * [ Remarks ]: Each method is a single statement regardless of the number of
+ * orders. Loaded orders are detached, so the bulk UPDATEs below are never
+ * followed by a per-row flush of the same changes; callers mirror the new
+ * values on the detached copies themselves. Must run inside a transaction.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ *
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Component
+public class OrderBulkQuery {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/** @return the active orders among {@code orderIds}, detached */
+	public List<Order> findActive(Collection<String> orderIds) {
+		if (orderIds.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Order> orders = entityManager.createQuery("select o from Order o where o.id in :orderIds and o.active = true", Order.class)
+				.setParameter("orderIds", orderIds)
+				.getResultList();
+		orders.forEach(entityManager::detach);
+		return orders;
+	}
+
+	/**
+	 * Locks and returns the next NEW orders created before {@code cutoff}, oldest
+	 * first, starting after the (createdAt, id) watermark. Rows locked by another
+	 * transaction are skipped rather than waited for. The orders are detached.
+	 */
+	public List<Order> lockExpired(Date cutoff, Date afterCreatedAt, String afterId, int limit) {
+		String jpql = "select o from Order o where o.status = :status and o.active = true and o.createdAt < :cutoff";
+		if (afterCreatedAt != null) {
+			jpql += " and (o.createdAt > :afterCreatedAt or (o.createdAt = :afterCreatedAt and o.id > :afterId))";
+		}
+		TypedQuery<Order> query = entityManager.createQuery(jpql + " order by o.createdAt, o.id", Order.class)
+				.setParameter("status", OrderStatus.NEW)
+				.setParameter("cutoff", cutoff)
+				.setLockMode(LockModeType.PESSIMISTIC_WRITE)
+				.setHint("javax.persistence.lock.timeout", -2)
+				.setMaxResults(limit);
+		if (afterCreatedAt != null) {
+			query.setParameter("afterCreatedAt", afterCreatedAt).setParameter("afterId", afterId);
+		}
+		List<Order> orders = query.getResultList();
+		orders.forEach(entityManager::detach);
+		return orders;
+	}
+
+	/**
+	 * Locks and returns those of the orders that are still NEW, skipping rows
+	 * other transactions hold. The orders are detached.
+	 */
+	public List<Order> lockNew(Collection<String> orderIds) {
+		if (orderIds.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Order> orders = entityManager.createQuery("select o from Order o where o.id in :orderIds and o.status = :status "
+				+ "and o.active = true", Order.class)
+				.setParameter("orderIds", orderIds)
+				.setParameter("status", OrderStatus.NEW)
+				.setLockMode(LockModeType.PESSIMISTIC_WRITE)
+				.setHint("javax.persistence.lock.timeout", -2)
+				.getResultList();
+		orders.forEach(entityManager::detach);
+		return orders;
+	}
+
+	/** @return id and createdAt of every active NEW order */
+	public List<Object[]> findNewOrderCreatedAt() {
+		return entityManager.createQuery("select o.id, o.createdAt from Order o where o.status = :status and o.active = true", Object[].class)
+				.setParameter("status", OrderStatus.NEW)
+				.getResultList();
+	}
+
+	/** Cancels those of the orders that are still NEW. */
+	public int cancelExpired(Collection<String> orderIds, Date updatedAt) {
+		return entityManager.createQuery("update Order o set o.status = :cancelled, o.updatedAt = :updatedAt "
+				+ "where o.id in :orderIds and o.status = :status")
+				.setParameter("cancelled", OrderStatus.CANCELLED)
+				.setParameter("status", OrderStatus.NEW)
+				.setParameter("updatedAt", updatedAt)
+				.setParameter("orderIds", orderIds)
+				.executeUpdate();
+	}
+
+	public int updateStatus(Collection<String> orderIds, OrderStatus status, String comment, Date updatedAt) {
+		return entityManager.createQuery("update Order o set o.status = :status, o.comment = :comment, o.updatedAt = :updatedAt "
+				+ "where o.id in :orderIds and o.active = true")
+				.setParameter("status", status)
+				.setParameter("comment", comment)
+				.setParameter("updatedAt", updatedAt)
+				.setParameter("orderIds", orderIds)
+				.executeUpdate();
+	}
+
+	/** Soft-deletes the orders and their active slots. */
+	public int deactivate(Collection<String> orderIds, Date updatedAt) {
+		deactivateSlots(orderIds, updatedAt);
+		return entityManager.createQuery("update Order o set o.active = false, o.updatedAt = :updatedAt "
+				+ "where o.id in :orderIds and o.active = true")
+				.setParameter("updatedAt", updatedAt)
+				.setParameter("orderIds", orderIds)
+				.executeUpdate();
+	}
+
+	public int deactivateSlots(Collection<String> orderIds, Date updatedAt) {
+		return entityManager.createQuery("update Slot s set s.active = false, s.updatedAt = :updatedAt "
+				+ "where s.order.id in :orderIds and s.active = true")
+				.setParameter("updatedAt", updatedAt)
+				.setParameter("orderIds", orderIds)
+				.executeUpdate();
+	}
+}
@@ -0,0 +1,17 @@
+package com.dsoft.m2u.api.request;
+
+import java.util.List;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+public class OrderBulkUpdateRequest {
+
+	private List<String> orderIds;
+	private String status;
+	private String comment;
+}
@@ -0,0 +1,54 @@
+package com.dsoft.m2u.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+import com.dsoft.m2u.domain.Order;
+import com.dsoft.m2u.exception.ResourceInvalidInputException;
+
+/**
+ * Position of the last order of a page in (createdAt desc, id desc) order,
+ * serialized as an opaque URL-safe token.
+ */
+public class OrderCursor {
+
+	private final Date createdAt;
+	private final String id;
+
+	public OrderCursor(Date createdAt, String id) {
+		this.createdAt = createdAt;
+		this.id = id;
+	}
+
+	public Date getCreatedAt() {
+		return createdAt;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public static OrderCursor after(Order order) {
+		return new OrderCursor(order.getCreatedAt(), order.getId());
+	}
+
+	public String encode() {
+		String raw = createdAt.getTime() + ":" + id;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** @return null for an empty token, i.e. the first page */
+	public static OrderCursor decode(String token) {
+		if (token == null || token.isEmpty()) {
+			return null;
+		}
+		try {
+			String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+			int separator = raw.indexOf(':');
+			return new OrderCursor(new Date(Long.parseLong(raw.substring(0, separator))), raw.substring(separator + 1));
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new ResourceInvalidInputException("Invalid cursor: " + token);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package com.dsoft.m2u.service;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.dsoft.m2u.event.PushNotificationEvent;
+import com.dsoft.m2u.utils.TransactionUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+/**
+ * [Description]: Bounded LRU cache of assembled order detail responses.<br>
+ * [ Remarks ]: Entries are keyed by order id and hold one response per view;
+ * mobile and reviewer responses only hit for the owner they were built for.
+ * Responses are kept as JSON and read into a new object on every hit, so a
+ * caller that changes the object it gets cannot change what later callers
+ * see. A response that cannot be written as JSON is not cached.
+ * The order write paths evict an order when they change it and again after
+ * commit. Changes made outside those paths are picked up via
+ * {@link PushNotificationEvent} or after {@code order.detail-cache.ttl-seconds}.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ *
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Component
+public class OrderDetailCache {
+
+	private static final Logger logger = LogManager.getLogger(OrderDetailCache.class);
+
+	public enum View {
+		ADMIN, MOBILE, REVIEWER
+	}
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${order.detail-cache.max-size:10000}")
+	private int maxSize;
+
+	@Value("${order.detail-cache.ttl-seconds:300}")
+	private long ttlSeconds;
+
+	private final Map<String, EnumMap<View, Response>> entries = new LinkedHashMap<String, EnumMap<View, Response>>(256, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, EnumMap<View, Response>> eldest) {
+			if (size() > maxSize) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/** Bumped on every eviction so that loads racing with a write are not cached. */
+	private final AtomicLong invalidations = new AtomicLong();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	private static final class Response {
+
+		private final String owner;
+		private final Class<?> type;
+		private final byte[] json;
+		private final long loadedAt;
+
+		private Response(String owner, Class<?> type, byte[] json) {
+			this.owner = owner;
+			this.type = type;
+			this.json = json;
+			this.loadedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Returns the cached response of the order for the view and owner, or builds
+	 * it with {@code loader}. Exceptions thrown by the loader are not cached.
+	 *
+	 * @param owner the fireBaseId or reviewer id the response was requested for,
+	 *              null for the admin view
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(View view, String orderId, String owner, Supplier<T> loader) {
+		long stamp = invalidations.get();
+		Response response;
+		synchronized (entries) {
+			EnumMap<View, Response> responses = entries.get(orderId);
+			response = responses == null ? null : responses.get(view);
+		}
+		if (response != null && Objects.equals(response.owner, owner)
+				&& System.currentTimeMillis() - response.loadedAt <= TimeUnit.SECONDS.toMillis(ttlSeconds)) {
+			try {
+				T value = (T) objectMapper.readValue(response.json, response.type);
+				hits.increment();
+				return value;
+			} catch (IOException e) {
+				logger.warn("OrderDetailCache.get: cannot read cached {} of order {}: {}", view, orderId, e.getMessage());
+			}
+		}
+		misses.increment();
+		T value = loader.get();
+		byte[] json;
+		try {
+			// written before the caller gets the value, so its later changes are not cached
+			json = value == null ? null : objectMapper.writeValueAsBytes(value);
+		} catch (JsonProcessingException e) {
+			logger.warn("OrderDetailCache.get: cannot cache {} of order {}: {}", view, orderId, e.getMessage());
+			json = null;
+		}
+		if (json != null) {
+			synchronized (entries) {
+				if (invalidations.get() == stamp) {
+					entries.computeIfAbsent(orderId, id -> new EnumMap<>(View.class)).put(view, new Response(owner, value.getClass(), json));
+				}
+			}
+		}
+		return value;
+	}
+
+	/** Evicts the order now and, inside a transaction, once more after commit. */
+	public void invalidate(String orderId) {
+		evict(orderId);
+		TransactionUtils.afterCommit(() -> evict(orderId));
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			invalidations.incrementAndGet();
+			entries.clear();
+		}
+	}
+
+	@EventListener
+	public void onPushNotification(PushNotificationEvent event) {
+		if (event.getOrder() != null) {
+			invalidate(event.getOrder().getId());
+		}
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	private void evict(String orderId) {
+		synchronized (entries) {
+			invalidations.incrementAndGet();
+			entries.remove(orderId);
+		}
+	}
+}
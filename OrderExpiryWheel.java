@@ -0,0 +1,280 @@
+package com.dsoft.m2u.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.dsoft.m2u.common.CommonConstants;
+import com.dsoft.m2u.utils.TransactionUtils;
+/**
+ * [Description]: Cancels NEW orders at the moment their payment window ends.<br>
+ * [ Remarks ]: Deadlines are kept in a hierarchical timing wheel: the first
+ * level has {@code order.expiry.wheel-size} buckets of
+ * {@code order.expiry.tick-ms}, each further level is created on demand with
+ * buckets as wide as the whole level below. Only non-empty buckets are queued,
+ * so the timer thread sleeps until the next deadline instead of polling.
+ * Orders created on this node are registered after commit; on startup the
+ * wheel is rebuilt from every NEW order. Fired orders are cancelled in batches
+ * through {@link OrderTimeoutSweeper#expire}, which skips orders that have
+ * been paid meanwhile.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ *
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Component
+public class OrderExpiryWheel {
+
+	private static final Logger logger = LogManager.getLogger(OrderExpiryWheel.class);
+
+	@Autowired
+	private OrderTimeoutSweeper orderTimeoutSweeper;
+
+	@Autowired
+	private OrderBulkQuery orderBulkQuery;
+
+	@Value("${order.expiry.tick-ms:1000}")
+	private long tickMs;
+
+	@Value("${order.expiry.wheel-size:64}")
+	private int wheelSize;
+
+	@Value("${order.expiry.max-batch:500}")
+	private int maxBatch;
+
+	private final DelayQueue<Bucket> queue = new DelayQueue<>();
+
+	private final AtomicLong pending = new AtomicLong();
+
+	private final AtomicLong fired = new AtomicLong();
+
+	private volatile TimingWheel wheel;
+
+	private Thread timer;
+
+	private ExecutorService expirer;
+
+	private static final class Entry {
+
+		private final String orderId;
+		private final long deadline;
+
+		private Entry(String orderId, long deadline) {
+			this.orderId = orderId;
+			this.deadline = deadline;
+		}
+	}
+
+	private static final class Bucket implements Delayed {
+
+		private final AtomicLong expiration = new AtomicLong(-1L);
+		private List<Entry> entries = new ArrayList<>();
+
+		private synchronized void add(Entry entry) {
+			entries.add(entry);
+		}
+
+		private synchronized List<Entry> drain() {
+			List<Entry> drained = entries;
+			entries = new ArrayList<>();
+			expiration.set(-1L);
+			return drained;
+		}
+
+		/** @return whether the bucket was reused for a new interval and must be queued again */
+		private boolean setExpiration(long expirationMs) {
+			return expiration.getAndSet(expirationMs) != expirationMs;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(Math.max(expiration.get() - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(expiration.get(), ((Bucket) other).expiration.get());
+		}
+	}
+
+	/** One level of the wheel; only touched by threads holding the wheel's lock. */
+	private final class TimingWheel {
+
+		private final long tick;
+		private final long interval;
+		private final Bucket[] buckets;
+		private long currentTime;
+		private TimingWheel overflow;
+
+		private TimingWheel(long tick, long startMs) {
+			this.tick = tick;
+			this.interval = tick * wheelSize;
+			this.buckets = new Bucket[wheelSize];
+			for (int i = 0; i < wheelSize; i++) {
+				buckets[i] = new Bucket();
+			}
+			this.currentTime = startMs - startMs % tick;
+		}
+
+		/** @return false if the entry is already due */
+		private boolean add(Entry entry) {
+			if (entry.deadline < currentTime + tick) {
+				return false;
+			}
+			if (entry.deadline < currentTime + interval) {
+				long virtualId = entry.deadline / tick;
+				Bucket bucket = buckets[(int) (virtualId % wheelSize)];
+				bucket.add(entry);
+				if (bucket.setExpiration(virtualId * tick)) {
+					queue.offer(bucket);
+				}
+				return true;
+			}
+			if (overflow == null) {
+				overflow = new TimingWheel(interval, currentTime);
+			}
+			return overflow.add(entry);
+		}
+
+		private void advanceClock(long timeMs) {
+			if (timeMs >= currentTime + tick) {
+				currentTime = timeMs - timeMs % tick;
+				if (overflow != null) {
+					overflow.advanceClock(currentTime);
+				}
+			}
+		}
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		expirer = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "order-expiry-cancel"));
+		wheel = new TimingWheel(tickMs, System.currentTimeMillis());
+		long timeoutMs = TimeUnit.MINUTES.toMillis(CommonConstants.SLOT_TIME_CONDITION);
+		List<Object[]> newOrders = orderBulkQuery.findNewOrderCreatedAt();
+		List<String> due = new ArrayList<>();
+		synchronized (this) {
+			for (Object[] row : newOrders) {
+				if (wheel.add(new Entry((String) row[0], ((Date) row[1]).getTime() + timeoutMs))) {
+					pending.incrementAndGet();
+				} else {
+					due.add((String) row[0]);
+				}
+			}
+		}
+		submitInBatches(due);
+		logger.info("OrderExpiryWheel.start: {} NEW orders registered", newOrders.size());
+		timer = daemon(this::run, "order-expiry-timer");
+		timer.start();
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (timer != null) {
+			timer.interrupt();
+			expirer.shutdownNow();
+		}
+	}
+
+	/** Registers a NEW order once the current transaction commits. */
+	public void scheduleAfterCommit(String orderId, Date createdAt) {
+		long created = createdAt == null ? System.currentTimeMillis() : createdAt.getTime();
+		long deadline = created + TimeUnit.MINUTES.toMillis(CommonConstants.SLOT_TIME_CONDITION);
+		TransactionUtils.afterCommit(() -> register(orderId, deadline));
+	}
+
+	public long getPendingCount() {
+		return pending.get();
+	}
+
+	public long getFiredCount() {
+		return fired.get();
+	}
+
+	private void register(String orderId, long deadline) {
+		if (wheel == null) {
+			// not started yet; the startup rebuild picks the order up
+			return;
+		}
+		Entry entry = new Entry(orderId, deadline);
+		boolean added;
+		synchronized (this) {
+			added = wheel.add(entry);
+		}
+		if (added) {
+			pending.incrementAndGet();
+		} else {
+			List<String> due = new ArrayList<>(1);
+			due.add(orderId);
+			submit(due);
+		}
+	}
+
+	private void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Bucket bucket = queue.take();
+				List<String> due = new ArrayList<>();
+				synchronized (this) {
+					while (bucket != null) {
+						wheel.advanceClock(bucket.expiration.get());
+						for (Entry entry : bucket.drain()) {
+							pending.decrementAndGet();
+							if (wheel.add(entry)) {
+								pending.incrementAndGet();
+							} else {
+								due.add(entry.orderId);
+							}
+						}
+						bucket = queue.poll();
+					}
+				}
+				submitInBatches(due);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException e) {
+				logger.error("OrderExpiryWheel: timer failed", e);
+			}
+		}
+	}
+
+	private void submitInBatches(List<String> due) {
+		for (int from = 0; from < due.size(); from += maxBatch) {
+			submit(new ArrayList<>(due.subList(from, Math.min(from + maxBatch, due.size()))));
+		}
+	}
+
+	private void submit(List<String> orderIds) {
+		expirer.execute(() -> {
+			try {
+				fired.addAndGet(orderIds.size());
+				orderTimeoutSweeper.expire(orderIds);
+			} catch (RuntimeException e) {
+				// left NEW; the periodic sweep cancels them
+				logger.error("OrderExpiryWheel: failed to expire {} orders", orderIds.size(), e);
+			}
+		});
+	}
+
+	private static Thread daemon(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+}
@@ -0,0 +1,53 @@
+package com.dsoft.m2u.service;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Component;
+
+import com.dsoft.m2u.domain.Order;
+/**
+ * [Description]: Seek-method paging over orders, newest first.<br>
+ * [ Remarks ]: Pages continue from the (createdAt, id) of the previous page's
+ * last row instead of an offset, so every page costs the same index range
+ * scan and no count query is issued.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ * 
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Component
+public class OrderKeysetQuery {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * @return up to {@code limit + 1} orders after the cursor; the extra row only
+	 *         tells the caller whether another page exists
+	 */
+	public List<Order> fetch(Specification<Order> spec, OrderCursor after, int limit) {
+		CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Order> query = cb.createQuery(Order.class);
+		Root<Order> root = query.from(Order.class);
+
+		Predicate predicate = spec == null ? cb.conjunction() : spec.toPredicate(root, query, cb);
+		if (after != null) {
+			Predicate older = cb.lessThan(root.<Date>get("createdAt"), after.getCreatedAt());
+			Predicate sameTimeLowerId = cb.and(cb.equal(root.<Date>get("createdAt"), after.getCreatedAt()),
+					cb.lessThan(root.<String>get("id"), after.getId()));
+			predicate = cb.and(predicate, cb.or(older, sameTimeLowerId));
+		}
+		query.select(root).where(predicate).orderBy(cb.desc(root.get("createdAt")), cb.desc(root.get("id")));
+
+		return entityManager.createQuery(query).setMaxResults(limit + 1).getResultList();
+	}
+}
@@ -0,0 +1,36 @@
+package com.dsoft.m2u.event;
+
+import com.dsoft.m2u.domain.Order;
+import com.dsoft.m2u.domain.OrderStatus;
+
+import lombok.Getter;
+
+/**
+ * Immutable snapshot of the order fields a push notification needs. Taken on
+ * the publishing thread so that workers never touch the {@link Order} entity.
+ */
+@Getter
+public class OrderNotification {
+
+	private final String fireBaseId;
+	private final String orderId;
+	private final String orderNo;
+	private final OrderStatus status;
+	private final String createdBy;
+
+	public OrderNotification(String fireBaseId, String orderId, String orderNo, OrderStatus status, String createdBy) {
+		this.fireBaseId = fireBaseId;
+		this.orderId = orderId;
+		this.orderNo = orderNo;
+		this.status = status;
+		this.createdBy = createdBy;
+	}
+
+	public static OrderNotification of(String fireBaseId, Order order) {
+		return new OrderNotification(fireBaseId, order.getId(), order.getOrderNo(), order.getStatus(), order.getCreatedBy());
+	}
+
+	public static OrderNotification of(PushNotificationEvent event) {
+		return of(event.getFireBaseId(), event.getOrder());
+	}
+}
@@ -0,0 +1,400 @@
+package com.dsoft.m2u.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceUnit;
+import javax.persistence.TypedQuery;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.internal.SessionFactoryImpl;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.dsoft.m2u.domain.Story;
+import com.dsoft.m2u.event.ReferenceDataChangedEvent;
+/**
+ * [Description]: In-memory inverted index for the admin order search.<br>
+ * [ Remarks ]: Order numbers, story messages and template names are indexed
+ * per order, facility titles per facility. Text is lower-cased and stripped of
+ * Vietnamese diacritics; every word of a query must match the start of an
+ * indexed word, or any part of an order number. A query without hits is left
+ * to the LIKE query, which also finds words the index does not split out.
+ * New orders are picked up every {@code order.search.refresh-ms} by
+ * createdAt, so orders created on any node are found. An order whose stories
+ * change on this node is indexed again on the next refresh; the words of
+ * removed story text, and story changes made on other nodes, wait for the full
+ * rebuild. The index is rebuilt in full on FACILITY and TEMPLATE changes and
+ * on {@code order.search.rebuild-cron}, which also drops deleted orders. The
+ * first build runs in the background after startup. The index only narrows
+ * the text condition to ids; all other filters and the paging stay in the
+ * database query.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ *
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Component
+public class OrderSearchIndex {
+
+	private static final Logger logger = LogManager.getLogger(OrderSearchIndex.class);
+
+	private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	/** Overlap when catching up, for rows committed with a slightly older createdAt. */
+	private static final long REFRESH_OVERLAP_MS = 60000L;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@PersistenceUnit
+	private EntityManagerFactory entityManagerFactory;
+
+	@Value("${order.search.batch-size:5000}")
+	private int batchSize;
+
+	@Value("${order.search.max-ids:2000}")
+	private int maxIds;
+
+	private volatile NavigableMap<String, Set<String>> orderTerms = new ConcurrentSkipListMap<>();
+
+	private volatile NavigableMap<String, Set<String>> facilityTerms = new ConcurrentSkipListMap<>();
+
+	private volatile Date watermark;
+
+	private volatile boolean ready;
+
+	private volatile boolean rebuildRequested;
+
+	/** Orders whose stories changed on this node since the last refresh. */
+	private final Queue<String> changedOrderIds = new ConcurrentLinkedQueue<>();
+
+	public static final class Match {
+
+		private final Set<String> orderIds;
+		private final Set<String> facilityIds;
+
+		private Match(Set<String> orderIds, Set<String> facilityIds) {
+			this.orderIds = orderIds;
+			this.facilityIds = facilityIds;
+		}
+
+		/** Orders whose number, story messages or template names match. */
+		public Set<String> getOrderIds() {
+			return orderIds;
+		}
+
+		/** Facilities whose title matches; all their orders match. */
+		public Set<String> getFacilityIds() {
+			return facilityIds;
+		}
+	}
+
+	/**
+	 * @return the matching ids, or null if the index cannot answer the query
+	 *         (not built yet, no searchable words, no hits, or more than
+	 *         {@code order.search.max-ids} hits) and the caller must fall back to
+	 *         the LIKE query
+	 */
+	public Match search(String text) {
+		List<String> words = tokenize(text);
+		if (!ready || words.isEmpty()) {
+			return null;
+		}
+		Set<String> orderIds = lookup(orderTerms, words);
+		Set<String> facilityIds = lookup(facilityTerms, words);
+		int hits = orderIds.size() + facilityIds.size();
+		if (hits == 0 || hits > maxIds) {
+			return null;
+		}
+		return new Match(orderIds, facilityIds);
+	}
+
+	@PostConstruct
+	public void registerStoryListener() {
+		EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImpl.class).getServiceRegistry()
+				.getService(EventListenerRegistry.class);
+		StoryListener listener = new StoryListener(changedOrderIds);
+		registry.appendListeners(EventType.POST_COMMIT_INSERT, listener);
+		registry.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+		registry.appendListeners(EventType.POST_COMMIT_DELETE, listener);
+	}
+
+	/**
+	 * Builds the index on a background thread, so startup does not wait for it;
+	 * searches use the LIKE query until it is ready.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void rebuildInBackground() {
+		Thread thread = new Thread(() -> {
+			try {
+				rebuild();
+			} catch (RuntimeException e) {
+				// stays not ready; the next scheduled rebuild tries again
+				logger.error("OrderSearchIndex.rebuild: initial build failed", e);
+			}
+		}, "order-search-rebuild");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Requests a full rebuild on the refresh thread, which drops orders that were
+	 * deleted and picks up edited story messages since the last build.
+	 */
+	@Scheduled(cron = "${order.search.rebuild-cron:0 30 3 * * *}")
+	public void requestRebuild() {
+		rebuildRequested = true;
+	}
+
+	public void rebuild() {
+		long started = System.currentTimeMillis();
+		NavigableMap<String, Set<String>> orders = new ConcurrentSkipListMap<>();
+		Date loadedUntil = indexOrdersSince(orders, null);
+		NavigableMap<String, Set<String>> facilities = new ConcurrentSkipListMap<>();
+		indexFacilities(facilities);
+		orderTerms = orders;
+		facilityTerms = facilities;
+		watermark = loadedUntil;
+		ready = true;
+		logger.info("OrderSearchIndex.rebuild: {} order terms, {} facility terms in {}ms", orders.size(), facilities.size(),
+				System.currentTimeMillis() - started);
+	}
+
+	@Scheduled(fixedDelayString = "${order.search.refresh-ms:5000}")
+	public void refresh() {
+		if (!ready) {
+			return;
+		}
+		if (rebuildRequested) {
+			rebuildRequested = false;
+			rebuild();
+			return;
+		}
+		Date since = watermark == null ? null : new Date(watermark.getTime() - REFRESH_OVERLAP_MS);
+		Date loadedUntil = indexOrdersSince(orderTerms, since);
+		if (loadedUntil != null) {
+			watermark = loadedUntil;
+		}
+		reindexChangedOrders();
+	}
+
+	/** Adds the current number and story text of the orders whose stories changed. */
+	private void reindexChangedOrders() {
+		Set<String> orderIds = new HashSet<>();
+		for (String orderId; orderIds.size() < batchSize && (orderId = changedOrderIds.poll()) != null;) {
+			orderIds.add(orderId);
+		}
+		if (orderIds.isEmpty()) {
+			return;
+		}
+		NavigableMap<String, Set<String>> terms = orderTerms;
+		for (Object[] order : entityManager.createQuery("select o.id, o.orderNo from Order o where o.id in :orderIds and o.active = true",
+				Object[].class)
+				.setParameter("orderIds", orderIds)
+				.getResultList()) {
+			addOrderNo(terms, (String) order[0], (String) order[1]);
+		}
+		indexStories(terms, orderIds);
+	}
+
+	@EventListener
+	public void onReferenceDataChanged(ReferenceDataChangedEvent event) {
+		if (event.getType() == ReferenceDataChangedEvent.Type.FACILITY || event.getType() == ReferenceDataChangedEvent.Type.TEMPLATE) {
+			rebuildRequested = true;
+		}
+	}
+
+	/** @return createdAt of the newest order indexed, or {@code since} if none */
+	private Date indexOrdersSince(NavigableMap<String, Set<String>> terms, Date since) {
+		Date cursor = since;
+		String cursorId = null;
+		while (true) {
+			String jpql = "select o.id, o.orderNo, o.createdAt from Order o where o.active = true";
+			if (cursorId != null) {
+				jpql += " and (o.createdAt > :since or (o.createdAt = :since and o.id > :afterId))";
+			} else if (cursor != null) {
+				jpql += " and o.createdAt > :since";
+			}
+			TypedQuery<Object[]> query = entityManager.createQuery(jpql + " order by o.createdAt, o.id", Object[].class)
+					.setMaxResults(batchSize);
+			if (cursor != null) {
+				query.setParameter("since", cursor);
+			}
+			if (cursorId != null) {
+				query.setParameter("afterId", cursorId);
+			}
+			List<Object[]> orders = query.getResultList();
+			if (orders.isEmpty()) {
+				return cursor;
+			}
+			List<String> orderIds = new ArrayList<>(orders.size());
+			for (Object[] order : orders) {
+				orderIds.add((String) order[0]);
+				addOrderNo(terms, (String) order[0], (String) order[1]);
+			}
+			indexStories(terms, orderIds);
+			cursor = (Date) orders.get(orders.size() - 1)[2];
+			cursorId = (String) orders.get(orders.size() - 1)[0];
+			if (orders.size() < batchSize) {
+				return cursor;
+			}
+		}
+	}
+
+	private void indexStories(NavigableMap<String, Set<String>> terms, Collection<String> orderIds) {
+		for (Object[] story : entityManager.createQuery("select s.order.id, s.message, t.nameDsp from Story s left join s.template t "
+				+ "where s.order.id in :orderIds", Object[].class)
+				.setParameter("orderIds", orderIds)
+				.getResultList()) {
+			add(terms, (String) story[0], (String) story[1]);
+			add(terms, (String) story[0], (String) story[2]);
+		}
+	}
+
+	private void indexFacilities(NavigableMap<String, Set<String>> terms) {
+		for (Object[] title : entityManager.createQuery("select f.id, ft.title from Facility f join f.translates ft", Object[].class)
+				.getResultList()) {
+			add(terms, (String) title[0], (String) title[1]);
+		}
+	}
+
+	private static void add(NavigableMap<String, Set<String>> terms, String id, String text) {
+		for (String word : tokenize(text)) {
+			terms.computeIfAbsent(word, key -> ConcurrentHashMap.newKeySet()).add(id);
+		}
+	}
+
+	/**
+	 * Indexes every suffix of the order number's words, so that a prefix lookup
+	 * finds any part of the number, e.g. its last digits.
+	 */
+	private static void addOrderNo(NavigableMap<String, Set<String>> terms, String id, String orderNo) {
+		for (String word : tokenize(orderNo)) {
+			for (int start = 0; start < word.length(); start++) {
+				terms.computeIfAbsent(word.substring(start), key -> ConcurrentHashMap.newKeySet()).add(id);
+			}
+		}
+	}
+
+	/** Intersects, over the words, the ids of all terms starting with the word. */
+	private static Set<String> lookup(NavigableMap<String, Set<String>> terms, List<String> words) {
+		Set<String> result = null;
+		for (String word : words) {
+			Set<String> ids = new HashSet<>();
+			for (Map.Entry<String, Set<String>> term : terms.subMap(word, true, word + Character.MAX_VALUE, false).entrySet()) {
+				ids.addAll(term.getValue());
+			}
+			if (result == null) {
+				result = ids;
+			} else {
+				result.retainAll(ids);
+			}
+			if (result.isEmpty()) {
+				return Collections.emptySet();
+			}
+		}
+		return result;
+	}
+
+	static List<String> tokenize(String text) {
+		if (text == null || text.isEmpty()) {
+			return Collections.emptyList();
+		}
+		String normalized = Normalizer.normalize(text.toLowerCase(), Normalizer.Form.NFD);
+		normalized = COMBINING_MARKS.matcher(normalized).replaceAll("").replace('đ', 'd');
+		List<String> words = new ArrayList<>();
+		for (String word : SEPARATORS.split(normalized)) {
+			if (!word.isEmpty()) {
+				words.add(word);
+			}
+		}
+		return words;
+	}
+
+	/** Queues the order of every committed story insert, update or delete for reindexing. */
+	private static final class StoryListener
+			implements PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+		private static final long serialVersionUID = 6021487312964083517L;
+
+		private final transient Queue<String> changedOrderIds;
+
+		private StoryListener(Queue<String> changedOrderIds) {
+			this.changedOrderIds = changedOrderIds;
+		}
+
+		@Override
+		public boolean requiresPostCommitHanding(EntityPersister persister) {
+			return Story.class.isAssignableFrom(persister.getMappedClass());
+		}
+
+		@Override
+		public void onPostInsert(PostInsertEvent event) {
+			queue(event.getEntity());
+		}
+
+		@Override
+		public void onPostUpdate(PostUpdateEvent event) {
+			queue(event.getEntity());
+		}
+
+		@Override
+		public void onPostDelete(PostDeleteEvent event) {
+			queue(event.getEntity());
+		}
+
+		@Override
+		public void onPostInsertCommitFailed(PostInsertEvent event) {
+			// rolled back: nothing changed
+		}
+
+		@Override
+		public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+			// rolled back: nothing changed
+		}
+
+		@Override
+		public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+			// rolled back: nothing changed
+		}
+
+		private void queue(Object entity) {
+			if (entity instanceof Story && ((Story) entity).getOrder() != null) {
+				changedOrderIds.add(((Story) entity).getOrder().getId());
+			}
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package com.dsoft.m2u.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.dsoft.m2u.common.CommonConstants;
+import com.dsoft.m2u.domain.Order;
+import com.dsoft.m2u.domain.Slot;
+/**
+ * [Description]: Cancels unpaid orders whose payment window has passed.<br>
+ * [ Remarks ]: Expired orders are processed oldest first in chunks of
+ * {@code order.timeout.chunk-size}, each in its own short transaction that
+ * locks only the chunk's rows and skips rows other transactions hold. The
+ * sweep resumes after the (createdAt, id) of the last processed order; every
+ * {@code order.timeout.rescan-every} sweeps it starts over from the oldest
+ * order to pick up rows that were skipped. Slots of a cancelled order are free
+ * as soon as its chunk commits. Most orders are expired on time by the
+ * {@link OrderExpiryWheel}; the sweep is the backstop for the rest.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ *
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Component
+public class OrderTimeoutSweeper {
+
+	private static final Logger logger = LogManager.getLogger(OrderTimeoutSweeper.class);
+
+	@Autowired
+	private OrderBulkQuery orderBulkQuery;
+
+	@Autowired
+	private OrderBatchLoader orderBatchLoader;
+
+	@Autowired
+	private SlotReservationService slotReservationService;
+
+	@Autowired
+	private OrderDetailCache orderDetailCache;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${order.timeout.chunk-size:500}")
+	private int chunkSize;
+
+	@Value("${order.timeout.max-chunks:100}")
+	private int maxChunks;
+
+	@Value("${order.timeout.rescan-every:60}")
+	private int rescanEvery;
+
+	private TransactionTemplate transactionTemplate;
+
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	private volatile Date watermarkCreatedAt;
+
+	private volatile String watermarkId;
+
+	private long sweeps;
+
+	private final AtomicLong processed = new AtomicLong();
+
+	private volatile long lastSweepProcessed;
+
+	private volatile long lastSweepMillis;
+
+	private volatile long lagMillis;
+
+	@PostConstruct
+	public void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+
+	/**
+	 * Runs one sweep of at most {@code order.timeout.max-chunks} chunks. Returns
+	 * immediately if a sweep is already running on this node.
+	 */
+	public void sweep() {
+		if (!running.compareAndSet(false, true)) {
+			return;
+		}
+		long started = System.currentTimeMillis();
+		try {
+			if (sweeps++ % rescanEvery == 0) {
+				watermarkCreatedAt = null;
+				watermarkId = null;
+			}
+			Date cutoff = new Date(started - TimeUnit.MINUTES.toMillis(CommonConstants.SLOT_TIME_CONDITION));
+			long cancelled = 0;
+			boolean first = true;
+			for (int chunk = 0; chunk < maxChunks; chunk++) {
+				List<Order> orders = transactionTemplate.execute(status -> sweepChunk(cutoff));
+				if (first) {
+					lagMillis = orders.isEmpty() ? 0 : cutoff.getTime() - orders.get(0).getCreatedAt().getTime();
+					first = false;
+				}
+				if (orders.isEmpty()) {
+					break;
+				}
+				Order last = orders.get(orders.size() - 1);
+				watermarkCreatedAt = last.getCreatedAt();
+				watermarkId = last.getId();
+				cancelled += orders.size();
+				if (orders.size() < chunkSize) {
+					break;
+				}
+			}
+			processed.addAndGet(cancelled);
+			lastSweepProcessed = cancelled;
+			if (cancelled > 0) {
+				logger.info("OrderTimeoutSweeper.sweep: cancelled {} orders, lag {}ms", cancelled, lagMillis);
+			}
+		} finally {
+			lastSweepMillis = System.currentTimeMillis() - started;
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Cancels the given orders if they are still NEW, in one transaction. Used by
+	 * the {@link OrderExpiryWheel} when their deadlines fire.
+	 *
+	 * @return the number of orders cancelled
+	 */
+	public int expire(Collection<String> orderIds) {
+		List<Order> orders = transactionTemplate.execute(status -> cancel(orderBulkQuery.lockNew(orderIds)));
+		processed.addAndGet(orders.size());
+		return orders.size();
+	}
+
+	/** @return the orders of the chunk, all of which were cancelled */
+	private List<Order> sweepChunk(Date cutoff) {
+		return cancel(orderBulkQuery.lockExpired(cutoff, watermarkCreatedAt, watermarkId, chunkSize));
+	}
+
+	private List<Order> cancel(List<Order> orders) {
+		if (orders.isEmpty()) {
+			return orders;
+		}
+		List<String> orderIds = new ArrayList<>(orders.size());
+		Map<String, String> facilityByOrder = new HashMap<>();
+		for (Order order : orders) {
+			orderIds.add(order.getId());
+			facilityByOrder.put(order.getId(), order.getFacility().getId());
+		}
+		orderBulkQuery.cancelExpired(orderIds, new Date());
+		Map<String, List<Slot>> slots = orderBatchLoader.loadActiveSlots(orderIds);
+		slotReservationService.releaseAll(facilityByOrder, slots);
+		orderIds.forEach(orderDetailCache::invalidate);
+		return orders;
+	}
+
+	public long getProcessedCount() {
+		return processed.get();
+	}
+
+	public long getLastSweepProcessed() {
+		return lastSweepProcessed;
+	}
+
+	public long getLastSweepMillis() {
+		return lastSweepMillis;
+	}
+
+	/** How long the first order cancelled by the last sweep had been overdue. */
+	public long getLagMillis() {
+		return lagMillis;
+	}
+}
@@ -0,0 +1,174 @@
+package com.dsoft.m2u.service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.dsoft.m2u.common.CommonConstants;
+import com.dsoft.m2u.domain.ConditionPrice;
+import com.dsoft.m2u.domain.PriceBySlot;
+import com.dsoft.m2u.event.ReferenceDataChangedEvent;
+import com.dsoft.m2u.repository.PriceBySlotRepository;
+/**
+ * [Description]: Price lookup tables compiled from the active PriceBySlot rules.<br>
+ * [ Remarks ]: Each facility gets one price per minute of the day for normal
+ * days, weekends and every special-date condition. A special-date price takes
+ * precedence over the weekend/normal price for the same minute; which
+ * condition applies to a date comes from the operating calendar. Tables are
+ * rebuilt after a ReferenceDataChangedEvent or once they are older than the
+ * reference data TTL, see ReferenceDataChangePublisher.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ * 
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Service
+public class PriceTableService {
+
+	private static final Logger logger = LogManager.getLogger(PriceTableService.class);
+
+	private static final int MINUTES_PER_DAY = 24 * 60;
+
+	@Autowired
+	private PriceBySlotRepository priceBySlotRepository;
+
+	@Autowired
+	private OperatingCalendarService operatingCalendarService;
+
+	@Value("${reference-data.cache.ttl-seconds:600}")
+	private long ttlSeconds;
+
+	private volatile Snapshot snapshot;
+
+	/** Prices of one facility for one date. */
+	public static final class DayPrices {
+
+		private static final DayPrices EMPTY = new DayPrices(null, null);
+
+		private final double[] special;
+		private final double[] base;
+
+		private DayPrices(double[] special, double[] base) {
+			this.special = special;
+			this.base = base;
+		}
+
+		public double priceAt(LocalTime time) {
+			int minute = time.getHour() * 60 + time.getMinute();
+			if (special != null && !Double.isNaN(special[minute])) {
+				return special[minute];
+			}
+			if (base != null && !Double.isNaN(base[minute])) {
+				return base[minute];
+			}
+			return CommonConstants.PRICE_DEFAULT;
+		}
+	}
+
+	public DayPrices forDay(String facilityId, LocalDate date) {
+		FacilityTable table = getSnapshot().facilities.get(facilityId);
+		if (table == null) {
+			return DayPrices.EMPTY;
+		}
+		boolean weekend = date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY;
+		String specialConditionPriceId = operatingCalendarService.getSpecialConditionPriceId(date);
+		return new DayPrices(specialConditionPriceId == null ? null : table.special.get(specialConditionPriceId),
+				weekend ? table.weekend : table.normal);
+	}
+
+	public double quote(String facilityId, LocalDate date, LocalTime time) {
+		return forDay(facilityId, date).priceAt(time);
+	}
+
+	public void invalidate() {
+		snapshot = null;
+	}
+
+	@EventListener
+	public void onReferenceDataChanged(ReferenceDataChangedEvent event) {
+		switch (event.getType()) {
+		case PRICE_BY_SLOT:
+		case SLOT_TYPE:
+		case FACILITY:
+			invalidate();
+			break;
+		default:
+			break;
+		}
+	}
+
+	private Snapshot getSnapshot() {
+		Snapshot current = snapshot;
+		if (current == null || System.currentTimeMillis() - current.compiledAt > TimeUnit.SECONDS.toMillis(ttlSeconds)) {
+			synchronized (this) {
+				current = snapshot;
+				if (current == null || System.currentTimeMillis() - current.compiledAt > TimeUnit.SECONDS.toMillis(ttlSeconds)) {
+					current = compile();
+					snapshot = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	private Snapshot compile() {
+		Map<String, FacilityTable> facilities = new HashMap<>();
+		int rules = 0;
+		for (PriceBySlot priceBySlot : priceBySlotRepository.findAllByActive(true)) {
+			FacilityTable table = facilities.computeIfAbsent(priceBySlot.getFacility().getId(), id -> new FacilityTable());
+			int from = priceBySlot.getStartTime().getHour() * 60 + priceBySlot.getStartTime().getMinute();
+			int to = priceBySlot.getEndTime().getHour() * 60 + priceBySlot.getEndTime().getMinute();
+			double price = priceBySlot.getPrice();
+			if (priceBySlot.getConditionPrice().getSpecialDate() != null) {
+				double[] special = table.special.computeIfAbsent(priceBySlot.getConditionPrice().getId(), key -> newTable());
+				// the first matching special-date rule wins
+				for (int minute = from; minute < to; minute++) {
+					if (Double.isNaN(special[minute])) {
+						special[minute] = price;
+					}
+				}
+			} else if (priceBySlot.getConditionPrice().getId().equalsIgnoreCase(ConditionPrice.WEEKEND.name())) {
+				Arrays.fill(table.weekend, from, Math.max(from, to), price);
+			} else if (priceBySlot.getConditionPrice().getId().equalsIgnoreCase(ConditionPrice.NORMAL.name())) {
+				Arrays.fill(table.normal, from, Math.max(from, to), price);
+			}
+			rules++;
+		}
+		logger.info("PriceTableService.compile: {} rules for {} facilities", rules, facilities.size());
+		return new Snapshot(facilities);
+	}
+
+	private static double[] newTable() {
+		double[] table = new double[MINUTES_PER_DAY];
+		Arrays.fill(table, Double.NaN);
+		return table;
+	}
+
+	private static final class FacilityTable {
+		private final double[] normal = newTable();
+		private final double[] weekend = newTable();
+		private final Map<String, double[]> special = new HashMap<>();
+	}
+
+	private static final class Snapshot {
+
+		private final Map<String, FacilityTable> facilities;
+		private final long compiledAt;
+
+		private Snapshot(Map<String, FacilityTable> facilities) {
+			this.facilities = facilities;
+			this.compiledAt = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,407 @@
+package com.dsoft.m2u.push.notification.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.dsoft.m2u.api.request.PushNotificationRequest;
+import com.dsoft.m2u.domain.FirebaseLog;
+import com.dsoft.m2u.domain.Notification;
+import com.dsoft.m2u.domain.NotificationType;
+import com.dsoft.m2u.event.OrderNotification;
+import com.dsoft.m2u.push.notification.service.NotificationTemplateRegistry.Rendered;
+
+/**
+ * Delivers order notifications off the publishing thread.<br>
+ * Notifications are queued on a bounded executor; when the queue is full the
+ * configured overflow policy applies. Each notification goes to all of the
+ * user's devices in one FCM multicast request; batches of notifications from
+ * {@link #submitAll(List)} share FCM batch requests across users. With
+ * multicast disabled the devices are sent to one by one, in parallel and
+ * bounded by an overall deadline. Sends that fail or are shed by the
+ * {@link FcmCircuitBreaker} are handed to the {@link FcmRetryScheduler}. With
+ * {@code push.notification.enabled} false nothing is sent and every
+ * notification counts as delivered.
+ */
+@Component
+public class PushNotificationDispatcher {
+
+	private static final Logger logger = LogManager.getLogger(PushNotificationDispatcher.class);
+
+	public enum OverflowPolicy {
+		/** Deliver on the publishing thread, slowing the producer down. */
+		CALLER_RUNS,
+		/** Drop the oldest queued notification to make room. */
+		DROP_OLDEST,
+		/** Drop the incoming notification. */
+		DROP
+	}
+
+	@Autowired
+	private FCMService fcmService;
+
+	@Autowired
+	private FCMMulticastService multicastService;
+
+	@Autowired
+	private NotificationWriteBuffer writeBuffer;
+
+	@Autowired
+	private DeviceTokenCache deviceTokenCache;
+
+	@Autowired
+	private NotificationTemplateRegistry templates;
+
+	@Autowired
+	private FcmCircuitBreaker circuitBreaker;
+
+	@Autowired
+	private FcmRetryScheduler retryScheduler;
+
+	@Value("${push.notification.enabled:true}")
+	private boolean enabled;
+
+	@Value("${push.notification.async.enabled:true}")
+	private boolean asyncEnabled;
+
+	@Value("${push.notification.async.workers:4}")
+	private int workers;
+
+	@Value("${push.notification.async.queue-capacity:1000}")
+	private int queueCapacity;
+
+	@Value("${push.notification.async.overflow-policy:CALLER_RUNS}")
+	private OverflowPolicy overflowPolicy;
+
+	@Value("${push.notification.multicast.enabled:true}")
+	private boolean multicastEnabled;
+
+	@Value("${push.notification.fan-out.threads:16}")
+	private int fanOutThreads;
+
+	@Value("${push.notification.fan-out.deadline-ms:10000}")
+	private long fanOutDeadlineMs;
+
+	private ThreadPoolExecutor executor;
+
+	private ExecutorService fanOutExecutor;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+		executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), namedThreadFactory("push-dispatch-"), rejectionHandler());
+		fanOutExecutor = Executors.newFixedThreadPool(fanOutThreads, namedThreadFactory("push-fan-out-"));
+		if (!enabled) {
+			logger.warn("PushNotificationDispatcher: push.notification.enabled is false, no notification will be sent");
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		executor.shutdown();
+		if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+			List<Runnable> waiting = executor.shutdownNow();
+			logger.warn("PushNotificationDispatcher: {} notifications not delivered on shutdown", waiting.size());
+			waiting.forEach(PushNotificationDispatcher::drop);
+		}
+		fanOutExecutor.shutdownNow();
+	}
+
+	public void dispatch(OrderNotification notification) {
+		if (!asyncEnabled) {
+			deliver(notification);
+			return;
+		}
+		executor.execute(new DeliveryTask(() -> deliver(notification), () -> {
+			// nobody waits on a dispatch
+		}));
+	}
+
+	/**
+	 * Queues the notification like {@link #dispatch(OrderNotification)} and
+	 * completes with {@code true} once it has been delivered, or with
+	 * {@code false} if it failed or was dropped on overflow or shutdown.
+	 */
+	public CompletableFuture<Boolean> submit(OrderNotification notification) {
+		if (!asyncEnabled) {
+			return CompletableFuture.completedFuture(deliver(notification));
+		}
+		CompletableFuture<Boolean> future = new CompletableFuture<>();
+		executor.execute(new DeliveryTask(() -> future.complete(deliver(notification)), () -> future.complete(false)));
+		return future;
+	}
+
+	/**
+	 * Like {@link #submit(OrderNotification)} for a batch of notifications,
+	 * possibly of different users, delivered together in as few FCM requests as
+	 * possible.
+	 *
+	 * @return one future per notification, in the same order
+	 */
+	public List<CompletableFuture<Boolean>> submitAll(List<OrderNotification> notifications) {
+		List<CompletableFuture<Boolean>> futures = new ArrayList<>(notifications.size());
+		for (int i = 0; i < notifications.size(); i++) {
+			futures.add(new CompletableFuture<>());
+		}
+		Runnable task = () -> {
+			List<Boolean> delivered = deliverAll(notifications);
+			for (int i = 0; i < futures.size(); i++) {
+				futures.get(i).complete(delivered.get(i));
+			}
+		};
+		if (asyncEnabled) {
+			executor.execute(new DeliveryTask(task, () -> futures.forEach(future -> future.complete(false))));
+		} else {
+			task.run();
+		}
+		return futures;
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	boolean deliver(OrderNotification notification) {
+		return deliverAll(Collections.singletonList(notification)).get(0);
+	}
+
+	private List<Boolean> deliverAll(List<OrderNotification> notifications) {
+		if (!enabled) {
+			// nothing is sent; report delivered so outbox rows are not retried
+			return new ArrayList<>(Collections.nCopies(notifications.size(), true));
+		}
+		List<Boolean> delivered = new ArrayList<>(Collections.nCopies(notifications.size(), false));
+		List<OrderNotification> sending = new ArrayList<>();
+		List<Rendered> rendered = new ArrayList<>();
+		List<List<String>> tokens = new ArrayList<>();
+		List<Integer> positions = new ArrayList<>();
+		for (int i = 0; i < notifications.size(); i++) {
+			OrderNotification notification = notifications.get(i);
+			try {
+				Rendered content = templates.render(notification);
+				List<String> deviceTokens = deviceTokenCache.tokensOf(notification.getFireBaseId());
+				sending.add(notification);
+				rendered.add(content);
+				tokens.add(deviceTokens);
+				positions.add(i);
+			} catch (RuntimeException e) {
+				logger.error("PushNotificationDispatcher: failed to deliver order " + notification.getOrderId(), e);
+			}
+		}
+		try {
+			if (!multicastEnabled) {
+				for (int i = 0; i < sending.size(); i++) {
+					fanOut(sending.get(i), rendered.get(i), tokens.get(i));
+				}
+			} else if (sending.size() == 1) {
+				multicast(sending.get(0), rendered.get(0), tokens.get(0));
+			} else {
+				sendAll(sending, rendered, tokens);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("PushNotificationDispatcher: interrupted while delivering {} notifications", sending.size());
+			return delivered;
+		} catch (Exception e) {
+			logger.error("PushNotificationDispatcher: failed to deliver {} notifications", sending.size(), e);
+			return delivered;
+		}
+		for (int i = 0; i < sending.size(); i++) {
+			OrderNotification notification = sending.get(i);
+			writeBuffer.write(new Notification(notification.getCreatedBy(), NotificationType.ORDER, notification.getOrderId(),
+					notification.getStatus(), rendered.get(i).getMessage(), true));
+			delivered.set(positions.get(i), true);
+		}
+		return delivered;
+	}
+
+	/** One FCM request per batch of up to 500 of the user's devices. */
+	private void multicast(OrderNotification notification, Rendered content, List<String> tokens) {
+		if (tokens.isEmpty()) {
+			return;
+		}
+		if (!circuitBreaker.tryAcquire()) {
+			for (String token : tokens) {
+				retryScheduler.retry(notification, token, content.getMessage(), 1, "FCM circuit open");
+			}
+			return;
+		}
+		List<Exception> results = multicastService.sendMulticast(content.toRequest(null), tokens);
+		for (int i = 0; i < results.size(); i++) {
+			onSent(notification, content, tokens.get(i), results.get(i));
+		}
+	}
+
+	/** One message per device of every notification, sent in batches across users. */
+	private void sendAll(List<OrderNotification> notifications, List<Rendered> rendered, List<List<String>> tokens) {
+		List<PushNotificationRequest> requests = new ArrayList<>();
+		List<Integer> owners = new ArrayList<>();
+		for (int i = 0; i < notifications.size(); i++) {
+			for (String token : tokens.get(i)) {
+				requests.add(rendered.get(i).toRequest(token));
+				owners.add(i);
+			}
+		}
+		if (requests.isEmpty()) {
+			return;
+		}
+		if (!circuitBreaker.tryAcquire()) {
+			for (int i = 0; i < requests.size(); i++) {
+				retryScheduler.retry(notifications.get(owners.get(i)), requests.get(i).getToken(), rendered.get(owners.get(i)).getMessage(), 1,
+						"FCM circuit open");
+			}
+			return;
+		}
+		List<Exception> results = multicastService.sendAll(requests);
+		for (int i = 0; i < results.size(); i++) {
+			onSent(notifications.get(owners.get(i)), rendered.get(owners.get(i)), requests.get(i).getToken(), results.get(i));
+		}
+	}
+
+	/** One request per device, sent in parallel, for SDKs or setups without batch sends. */
+	private void fanOut(OrderNotification notification, Rendered content, List<String> tokens) throws InterruptedException {
+		List<String> sent = new ArrayList<>(tokens.size());
+		List<Callable<Object>> sends = new ArrayList<>(tokens.size());
+		for (String token : tokens) {
+			if (!circuitBreaker.tryAcquire()) {
+				retryScheduler.retry(notification, token, content.getMessage(), 1, "FCM circuit open");
+				continue;
+			}
+			PushNotificationRequest request = content.toRequest(token);
+			sent.add(token);
+			sends.add(() -> {
+				fcmService.sendMessage(request);
+				return null;
+			});
+		}
+		List<Future<Object>> results = fanOutExecutor.invokeAll(sends, fanOutDeadlineMs, TimeUnit.MILLISECONDS);
+		for (int i = 0; i < results.size(); i++) {
+			Throwable error = null;
+			try {
+				results.get(i).get();
+			} catch (CancellationException e) {
+				error = new TimeoutException("Deadline of " + fanOutDeadlineMs + "ms exceeded");
+			} catch (ExecutionException e) {
+				error = e.getCause();
+			}
+			onSent(notification, content, sent.get(i), error);
+		}
+	}
+
+	private void onSent(OrderNotification notification, Rendered content, String token, Throwable error) {
+		if (error == null) {
+			circuitBreaker.recordSuccess();
+			return;
+		}
+		logger.warn("PushNotificationDispatcher: send to device {} failed", token, error);
+		writeBuffer.write(new FirebaseLog(token, content.getMessage(), error.getMessage()));
+		if (FcmErrorClassifier.classify(error) == FcmErrorClassifier.Kind.INVALID_TOKEN) {
+			circuitBreaker.recordSuccess();
+			deviceTokenCache.prune(notification.getFireBaseId(), token);
+		} else {
+			circuitBreaker.recordFailure();
+			retryScheduler.retry(notification, token, content.getMessage(), 1, error.getMessage());
+		}
+	}
+
+	private RejectedExecutionHandler rejectionHandler() {
+		switch (overflowPolicy) {
+		case DROP_OLDEST:
+			return (task, pool) -> {
+				if (pool.isShutdown()) {
+					drop(task);
+					return;
+				}
+				Runnable oldest = pool.getQueue().poll();
+				if (oldest != null) {
+					drop(oldest);
+					dropped.incrementAndGet();
+					logger.warn("PushNotificationDispatcher: queue full, dropped oldest notification");
+				}
+				pool.execute(task);
+			};
+		case DROP:
+			return (task, pool) -> {
+				drop(task);
+				dropped.incrementAndGet();
+				logger.warn("PushNotificationDispatcher: queue full, dropped notification");
+			};
+		default:
+			return (task, pool) -> {
+				if (pool.isShutdown()) {
+					drop(task);
+					return;
+				}
+				task.run();
+			};
+		}
+	}
+
+	/** Completes the futures of a task that will not run. */
+	private static void drop(Runnable task) {
+		if (task instanceof DeliveryTask) {
+			((DeliveryTask) task).onDrop.run();
+		}
+	}
+
+	/** A queued delivery and what to tell its callers if it is dropped instead. */
+	private static final class DeliveryTask implements Runnable {
+
+		private final Runnable delivery;
+		private final Runnable onDrop;
+
+		private DeliveryTask(Runnable delivery, Runnable onDrop) {
+			this.delivery = delivery;
+			this.onDrop = onDrop;
+		}
+
+		@Override
+		public void run() {
+			try {
+				delivery.run();
+			} catch (RuntimeException e) {
+				onDrop.run();
+				throw e;
+			}
+		}
+	}
+
+	private static ThreadFactory namedThreadFactory(String prefix) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
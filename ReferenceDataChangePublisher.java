@@ -0,0 +1,140 @@
+package com.dsoft.m2u.event;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.internal.SessionFactoryImpl;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import com.dsoft.m2u.domain.Category;
+import com.dsoft.m2u.domain.CategoryTranslate;
+import com.dsoft.m2u.domain.Facility;
+import com.dsoft.m2u.domain.FacilityTranslate;
+import com.dsoft.m2u.domain.PriceBySlot;
+import com.dsoft.m2u.domain.SlotType;
+import com.dsoft.m2u.domain.Template;
+import com.dsoft.m2u.domain.TimeConfig;
+
+/**
+ * Publishes {@link ReferenceDataChangedEvent} once a transaction that inserted,
+ * updated or deleted reference data has committed.<br>
+ * Registered as a Hibernate post-commit listener, so every write path of the
+ * admin services is covered without each of them publishing.<br>
+ * Bulk JPQL and native updates bypass Hibernate events, so nothing is
+ * published for them. The reference data caches (OperatingCalendarService,
+ * PriceTableService and CatalogCache) therefore also reload whatever is older
+ * than {@code reference-data.cache.ttl-seconds}, 600 by default, which bounds
+ * how long such an update goes unseen. The one property covers all three,
+ * since an admin changing prices, special dates or facilities with one bulk
+ * update expects them to show up together.
+ */
+@Component
+public class ReferenceDataChangePublisher
+		implements PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+	private static final long serialVersionUID = -3180497765284436514L;
+
+	private static final Logger logger = LogManager.getLogger(ReferenceDataChangePublisher.class);
+
+	private static final Map<Class<?>, ReferenceDataChangedEvent.Type> TYPES = new LinkedHashMap<>();
+
+	static {
+		TYPES.put(PriceBySlot.class, ReferenceDataChangedEvent.Type.PRICE_BY_SLOT);
+		TYPES.put(SlotType.class, ReferenceDataChangedEvent.Type.SLOT_TYPE);
+		TYPES.put(TimeConfig.class, ReferenceDataChangedEvent.Type.TIME_CONFIG);
+		TYPES.put(Facility.class, ReferenceDataChangedEvent.Type.FACILITY);
+		TYPES.put(FacilityTranslate.class, ReferenceDataChangedEvent.Type.FACILITY);
+		TYPES.put(Template.class, ReferenceDataChangedEvent.Type.TEMPLATE);
+		TYPES.put(Category.class, ReferenceDataChangedEvent.Type.CATEGORY);
+		TYPES.put(CategoryTranslate.class, ReferenceDataChangedEvent.Type.CATEGORY);
+	}
+
+	@PersistenceUnit
+	private transient EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private transient ApplicationEventPublisher publisher;
+
+	@PostConstruct
+	public void register() {
+		EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImpl.class).getServiceRegistry()
+				.getService(EventListenerRegistry.class);
+		registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+		registry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+		registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+	}
+
+	@Override
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return typeOf(persister.getMappedClass()) != null;
+	}
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		publish(event.getEntity());
+	}
+
+	@Override
+	public void onPostUpdate(PostUpdateEvent event) {
+		publish(event.getEntity());
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		publish(event.getEntity());
+	}
+
+	@Override
+	public void onPostInsertCommitFailed(PostInsertEvent event) {
+		// rolled back: nothing changed
+	}
+
+	@Override
+	public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+		// rolled back: nothing changed
+	}
+
+	@Override
+	public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+		// rolled back: nothing changed
+	}
+
+	private void publish(Object entity) {
+		ReferenceDataChangedEvent.Type type = typeOf(entity.getClass());
+		if (type == null) {
+			return;
+		}
+		try {
+			publisher.publishEvent(new ReferenceDataChangedEvent(this, type));
+		} catch (RuntimeException e) {
+			// the change is committed; a failing listener must not surface to the writer
+			logger.error("ReferenceDataChangePublisher: listener of {} failed", type, e);
+		}
+	}
+
+	private static ReferenceDataChangedEvent.Type typeOf(Class<?> entityClass) {
+		for (Map.Entry<Class<?>, ReferenceDataChangedEvent.Type> entry : TYPES.entrySet()) {
+			if (entry.getKey().isAssignableFrom(entityClass)) {
+				return entry.getValue();
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,27 @@
+package com.dsoft.m2u.event;
+
+import org.springframework.context.ApplicationEvent;
+
+import lombok.Getter;
+
+/**
+ * Published by {@link ReferenceDataChangePublisher} after a transaction that
+ * changed reference data used by the order screens has committed, so that
+ * in-memory copies can be refreshed.
+ */
+@Getter
+public class ReferenceDataChangedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 4127390857651207634L;
+
+	public enum Type {
+		PRICE_BY_SLOT, SLOT_TYPE, TIME_CONFIG, FACILITY, TEMPLATE, CATEGORY
+	}
+
+	private final Type type;
+
+	public ReferenceDataChangedEvent(Object source, Type type) {
+		super(source);
+		this.type = type;
+	}
+}
@@ -0,0 +1,26 @@
+package com.dsoft.m2u.event;
+
+import java.time.LocalDate;
+
+import org.springframework.context.ApplicationEvent;
+
+import lombok.Getter;
+
+/**
+ * Published after committed bookings or releases change which slots of a
+ * facility are free on a date.
+ */
+@Getter
+public class SlotAvailabilityChangedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = -2318734061529847716L;
+
+	private final String facilityId;
+	private final LocalDate date;
+
+	public SlotAvailabilityChangedEvent(Object source, String facilityId, LocalDate date) {
+		super(source);
+		this.facilityId = facilityId;
+		this.date = date;
+	}
+}
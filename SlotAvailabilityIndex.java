@@ -0,0 +1,285 @@
+package com.dsoft.m2u.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.dsoft.m2u.domain.OrderStatus;
+import com.dsoft.m2u.domain.Slot;
+import com.dsoft.m2u.event.SlotAvailabilityChangedEvent;
+import com.dsoft.m2u.repository.SlotRepository;
+import com.dsoft.m2u.utils.TransactionUtils;
+/**
+ * [Description]: In-memory booked-slot bitmaps per facility and date.<br>
+ * [ Remarks ]: A bitmap is loaded from the database on first use and then
+ * kept current by the order write paths. Loads run in their own read-only
+ * transaction, so a bitmap only ever holds committed bookings, even when it is
+ * first needed inside an order transaction that has already flushed its own
+ * slots. Bitmaps are reloaded after
+ * {@code availability.bitmap.ttl-seconds} to pick up changes made outside
+ * this node, and past dates are evicted. Loads run outside the map, so a
+ * slow query never blocks other days; books and releases of a day that land
+ * while it is loading are recorded and replayed onto the loaded bitmap before
+ * it is published. Committed changes are announced
+ * with a {@link SlotAvailabilityChangedEvent}.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ * 
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Component
+public class SlotAvailabilityIndex {
+
+	private static final Logger logger = LogManager.getLogger(SlotAvailabilityIndex.class);
+
+	/** Order statuses whose slots are unavailable to other customers. */
+	public static final List<OrderStatus> BOOKED_STATUSES = Arrays.asList(OrderStatus.APPROVED, OrderStatus.PAID, OrderStatus.NEW);
+
+	@Autowired
+	private SlotRepository slotRepository;
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${availability.bitmap.ttl-seconds:60}")
+	private long ttlSeconds;
+
+	private final ConcurrentMap<DayKey, SlotBitmap> bitmaps = new ConcurrentHashMap<>();
+
+	/** Days being loaded, with the changes made to them since their load started. */
+	private final ConcurrentMap<DayKey, Journal> journals = new ConcurrentHashMap<>();
+
+	private TransactionTemplate loadTemplate;
+
+	@PostConstruct
+	public void init() {
+		loadTemplate = new TransactionTemplate(transactionManager);
+		loadTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		loadTemplate.setReadOnly(true);
+	}
+
+	public SlotBitmap get(String facilityId, LocalDate date) {
+		DayKey key = new DayKey(facilityId, date);
+		SlotBitmap bitmap = bitmaps.get(key);
+		if (bitmap == null) {
+			return loadAndPublish(key, null);
+		}
+		if (System.currentTimeMillis() - bitmap.getLoadedAt() > TimeUnit.SECONDS.toMillis(ttlSeconds)) {
+			Journal journal = journals.get(key);
+			if (journal != null && journal.isLoading()) {
+				// another caller is already reloading this day
+				return bitmap;
+			}
+			return loadAndPublish(key, bitmap);
+		}
+		return bitmap;
+	}
+
+	public void book(String facilityId, Collection<Slot> slots) {
+		for (Slot slot : slots) {
+			change(new DayKey(facilityId, slot.getDateDisplay()), true, SlotBitmap.unitOf(slot.getTimeStart()),
+					SlotBitmap.endUnitOf(slot.getTimeStart(), slot.getTimeEnd()));
+		}
+		publishChanged(facilityId, slots);
+	}
+
+	public void release(String facilityId, Collection<Slot> slots) {
+		for (Slot slot : slots) {
+			change(new DayKey(facilityId, slot.getDateDisplay()), false, SlotBitmap.unitOf(slot.getTimeStart()),
+					SlotBitmap.endUnitOf(slot.getTimeStart(), slot.getTimeEnd()));
+		}
+		publishChanged(facilityId, slots);
+	}
+
+	/**
+	 * Applies a committed change to the day's bitmap. While the day is loading,
+	 * the change is also recorded, under the same lock the load publishes with,
+	 * so it reaches either the replaced bitmap and the journal or the loaded one.
+	 */
+	private void change(DayKey key, boolean book, int from, int to) {
+		Journal journal = journals.get(key);
+		if (journal == null) {
+			// a load that starts after this point reads the committed change itself
+			apply(bitmaps.get(key), book, from, to);
+			return;
+		}
+		synchronized (journal) {
+			journal.record(book, from, to);
+			apply(bitmaps.get(key), book, from, to);
+		}
+	}
+
+	private static void apply(SlotBitmap bitmap, boolean book, int from, int to) {
+		if (bitmap == null) {
+			return;
+		}
+		if (book) {
+			bitmap.book(from, to);
+		} else {
+			bitmap.release(from, to);
+		}
+	}
+
+	/**
+	 * Loads the day and publishes it in place of {@code expected}, or as the
+	 * first bitmap of the day when {@code expected} is null.
+	 *
+	 * @return the bitmap in the map afterwards, which is another caller's load
+	 *         if that one was published first
+	 */
+	private SlotBitmap loadAndPublish(DayKey key, SlotBitmap expected) {
+		Journal journal = journals.compute(key, (k, current) -> {
+			Journal started = current == null ? new Journal() : current;
+			started.begin();
+			return started;
+		});
+		int version = journal.version();
+		try {
+			SlotBitmap loaded = load(key);
+			synchronized (journal) {
+				journal.replay(version, loaded);
+				if (expected == null) {
+					bitmaps.putIfAbsent(key, loaded);
+				} else {
+					bitmaps.replace(key, expected, loaded);
+				}
+				SlotBitmap published = bitmaps.get(key);
+				return published == null ? loaded : published;
+			}
+		} finally {
+			journals.computeIfPresent(key, (k, current) -> current.end() ? null : current);
+		}
+	}
+
+	public void bookAfterCommit(String facilityId, Collection<Slot> slots) {
+		TransactionUtils.afterCommit(() -> book(facilityId, slots));
+	}
+
+	public void releaseAfterCommit(String facilityId, Collection<Slot> slots) {
+		TransactionUtils.afterCommit(() -> release(facilityId, slots));
+	}
+
+	@Scheduled(cron = "${availability.bitmap.evict-cron:0 5 0 * * *}")
+	public void evictPastDates() {
+		LocalDate today = LocalDate.now();
+		bitmaps.keySet().removeIf(key -> key.date.isBefore(today));
+		logger.info("SlotAvailabilityIndex.evictPastDates: {} days cached", bitmaps.size());
+	}
+
+	private void publishChanged(String facilityId, Collection<Slot> slots) {
+		Set<LocalDate> dates = new HashSet<>();
+		for (Slot slot : slots) {
+			if (dates.add(slot.getDateDisplay())) {
+				eventPublisher.publishEvent(new SlotAvailabilityChangedEvent(this, facilityId, slot.getDateDisplay()));
+			}
+		}
+	}
+
+	private SlotBitmap load(DayKey key) {
+		return loadTemplate.execute(status -> {
+			SlotBitmap bitmap = new SlotBitmap();
+			for (Slot slot : slotRepository.findByOrderFacilityIdAndActiveAndDateDisplayAndOrderStatusIn(key.facilityId, true, key.date,
+					BOOKED_STATUSES)) {
+				bitmap.book(SlotBitmap.unitOf(slot.getTimeStart()), SlotBitmap.endUnitOf(slot.getTimeStart(), slot.getTimeEnd()));
+			}
+			return bitmap;
+		});
+	}
+
+	/**
+	 * Changes made to a day while loads of it are running. A load remembers the
+	 * version it started at and replays every later change onto its bitmap.
+	 */
+	private static final class Journal {
+
+		private final List<int[]> changes = new ArrayList<>();
+
+		private int loads;
+
+		private synchronized void begin() {
+			loads++;
+		}
+
+		/** @return true when no load of the day is left */
+		private synchronized boolean end() {
+			if (--loads == 0) {
+				changes.clear();
+				return true;
+			}
+			return false;
+		}
+
+		private synchronized boolean isLoading() {
+			return loads > 0;
+		}
+
+		private synchronized int version() {
+			return changes.size();
+		}
+
+		private synchronized void record(boolean book, int from, int to) {
+			if (loads > 0) {
+				changes.add(new int[] { book ? 1 : 0, from, to });
+			}
+		}
+
+		private synchronized void replay(int version, SlotBitmap bitmap) {
+			for (int i = version; i < changes.size(); i++) {
+				int[] change = changes.get(i);
+				apply(bitmap, change[0] == 1, change[1], change[2]);
+			}
+		}
+	}
+
+	private static final class DayKey {
+
+		private final String facilityId;
+		private final LocalDate date;
+
+		private DayKey(String facilityId, LocalDate date) {
+			this.facilityId = facilityId;
+			this.date = date;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof DayKey)) {
+				return false;
+			}
+			DayKey other = (DayKey) o;
+			return facilityId.equals(other.facilityId) && date.equals(other.date);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(facilityId, date);
+		}
+	}
+}
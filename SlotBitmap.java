@@ -0,0 +1,106 @@
+package com.dsoft.m2u.service;
+
+import java.time.LocalTime;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Booked state of one facility for one day, one bit per 5-minute unit.<br>
+ * Bits are updated with CAS so readers never block and concurrent updates to
+ * different units of the same day do not contend.
+ */
+public class SlotBitmap {
+
+	public static final int UNIT_MINUTES = 5;
+
+	public static final int UNITS_PER_DAY = 24 * 60 / UNIT_MINUTES;
+
+	private final AtomicLongArray words = new AtomicLongArray((UNITS_PER_DAY + 63) / 64);
+
+	private final long loadedAt;
+
+	public SlotBitmap() {
+		this.loadedAt = System.currentTimeMillis();
+	}
+
+	public long getLoadedAt() {
+		return loadedAt;
+	}
+
+	public static int unitOf(LocalTime time) {
+		return (time.getHour() * 60 + time.getMinute()) / UNIT_MINUTES;
+	}
+
+	/** Exclusive end unit; an end of 00:00 means the end of the day. */
+	public static int endUnitOf(LocalTime start, LocalTime end) {
+		if (!end.isAfter(start)) {
+			return UNITS_PER_DAY;
+		}
+		return (end.getHour() * 60 + end.getMinute() + UNIT_MINUTES - 1) / UNIT_MINUTES;
+	}
+
+	public boolean isBooked(int unit) {
+		return (words.get(unit >>> 6) & (1L << unit)) != 0;
+	}
+
+	public boolean isBooked(LocalTime time) {
+		return isBooked(unitOf(time));
+	}
+
+	/** @return true when no unit in [from, to) is booked */
+	public boolean isFree(int from, int to) {
+		for (int unit = from; unit < to; unit++) {
+			if (isBooked(unit)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean isFree(LocalTime start, LocalTime end) {
+		return isFree(unitOf(start), endUnitOf(start, end));
+	}
+
+	public void book(int from, int to) {
+		for (int unit = from; unit < to; unit++) {
+			long bit = 1L << unit;
+			int index = unit >>> 6;
+			long word;
+			do {
+				word = words.get(index);
+			} while ((word & bit) == 0 && !words.compareAndSet(index, word, word | bit));
+		}
+	}
+
+	/**
+	 * Atomically books [from, to) if every unit is free. Units booked by this
+	 * call are released again when a conflicting unit is found.
+	 * 
+	 * @return false if any unit was already booked
+	 */
+	public boolean tryBook(int from, int to) {
+		for (int unit = from; unit < to; unit++) {
+			long bit = 1L << unit;
+			int index = unit >>> 6;
+			long word;
+			do {
+				word = words.get(index);
+				if ((word & bit) != 0) {
+					release(from, unit);
+					return false;
+				}
+			} while (!words.compareAndSet(index, word, word | bit));
+		}
+		return true;
+	}
+
+	public void release(int from, int to) {
+		for (int unit = from; unit < to; unit++) {
+			long bit = 1L << unit;
+			int index = unit >>> 6;
+			long word;
+			do {
+				word = words.get(index);
+			} while ((word & bit) != 0 && !words.compareAndSet(index, word, word & ~bit));
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.dsoft.m2u.domain;
+
+import java.time.LocalDate;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
+
+import org.hibernate.annotations.GenericGenerator;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * One 5-minute unit of a facility's day held by an order. The unique key makes
+ * the database reject a second order for the same unit, across all nodes.
+ */
+@Entity
+@Table(name = "slot_claim", uniqueConstraints = {
+		@UniqueConstraint(name = "uk_slot_claim_unit", columnNames = { "facility_id", "date_display", "unit" }) }, indexes = {
+				@Index(name = "idx_slot_claim_order", columnList = "order_id") })
+@Getter
+@Setter
+@NoArgsConstructor
+public class SlotClaim {
+
+	@Id
+	@GeneratedValue(generator = "uuid")
+	@GenericGenerator(name = "uuid", strategy = "uuid2")
+	private String id;
+
+	@Column(name = "facility_id", nullable = false)
+	private String facilityId;
+
+	@Column(name = "date_display", nullable = false)
+	private LocalDate dateDisplay;
+
+	@Column(name = "unit", nullable = false)
+	private int unit;
+
+	@Column(name = "order_id", nullable = false)
+	private String orderId;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "created_at", nullable = false)
+	private Date createdAt;
+
+	public SlotClaim(String facilityId, LocalDate dateDisplay, int unit, String orderId) {
+		this.facilityId = facilityId;
+		this.dateDisplay = dateDisplay;
+		this.unit = unit;
+		this.orderId = orderId;
+		this.createdAt = new Date();
+	}
+}
@@ -0,0 +1,46 @@
+package com.dsoft.m2u.repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Date;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.dsoft.m2u.domain.OrderStatus;
+import com.dsoft.m2u.domain.SlotClaim;
+
+@Repository
+public interface SlotClaimRepository extends JpaRepository<SlotClaim, String> {
+
+	@Modifying
+	@Transactional
+	@Query("delete from SlotClaim c where c.orderId in :orderIds")
+	int deleteByOrderIds(@Param("orderIds") Collection<String> orderIds);
+
+	/**
+	 * Deletes the claims on the given units of a day that no longer hold time for
+	 * their order: the order is inactive, not in one of {@code statuses}, or still
+	 * {@code pending} and created before {@code expiredBefore}. Claims of
+	 * {@code orderId} itself are kept.
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from SlotClaim c where c.facilityId = :facilityId and c.dateDisplay = :date and c.unit in :units "
+			+ "and c.orderId <> :orderId and not exists (select o.id from Order o where o.id = c.orderId and o.active = true "
+			+ "and o.status in :statuses and (o.status <> :pending or o.createdAt >= :expiredBefore))")
+	int deleteStaleOnUnits(@Param("facilityId") String facilityId, @Param("date") LocalDate date, @Param("units") Collection<Integer> units,
+			@Param("orderId") String orderId, @Param("statuses") Collection<OrderStatus> statuses, @Param("pending") OrderStatus pending,
+			@Param("expiredBefore") Date expiredBefore);
+
+	/** Deletes the claims of past days and of orders that are inactive or not in one of {@code statuses}. */
+	@Modifying
+	@Transactional
+	@Query("delete from SlotClaim c where c.dateDisplay < :today or not exists (select o.id from Order o where o.id = c.orderId "
+			+ "and o.active = true and o.status in :statuses)")
+	int deleteOrphans(@Param("today") LocalDate today, @Param("statuses") Collection<OrderStatus> statuses);
+}
@@ -0,0 +1,208 @@
+package com.dsoft.m2u.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.dsoft.m2u.api.dto.ErrorCodeEnum;
+import com.dsoft.m2u.common.CommonConstants;
+import com.dsoft.m2u.domain.OrderStatus;
+import com.dsoft.m2u.domain.Slot;
+import com.dsoft.m2u.domain.SlotClaim;
+import com.dsoft.m2u.exception.ResourceInvalidInputException;
+import com.dsoft.m2u.repository.SlotClaimRepository;
+import com.dsoft.m2u.utils.TransactionUtils;
+/**
+ * [Description]: Reserves facility time for orders without table locks.<br>
+ * [ Remarks ]: A reservation first sets the slot's bits in the day bitmap with
+ * CAS, so a conflicting booking on this node fails immediately and bookings of
+ * other slots never wait on each other. It is then made durable with one
+ * slot_claim row per 5-minute unit, whose unique key settles races between
+ * nodes. Bits are handed back if the order transaction rolls back.<br>
+ * A claim row can outlive its hold when the order changes through a path that
+ * does not release it, and a NEW order keeps its rows until the expiry wheel
+ * or the timeout sweeper cancels it. Before writing, a booking therefore
+ * deletes the rows on its units whose order is inactive, not booked, or NEW
+ * for longer than SLOT_TIME_CONDITION, and {@link #sweepOrphanClaims()}
+ * removes the rest of the stale rows periodically. Orders booked before
+ * slot_claim existed get their rows from {@link #backfillClaims()} at
+ * startup.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ * 
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Service
+public class SlotReservationService {
+
+	private static final Logger logger = LogManager.getLogger(SlotReservationService.class);
+
+	@Autowired
+	private SlotAvailabilityIndex slotAvailabilityIndex;
+
+	@Autowired
+	private SlotClaimRepository slotClaimRepository;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${availability.claim-backfill.enabled:true}")
+	private boolean backfillEnabled;
+
+	/**
+	 * Claims the slots in memory. Must run inside the order's transaction; the
+	 * claim is released if that transaction rolls back.
+	 */
+	public void claim(String facilityId, Collection<Slot> slots) {
+		List<Runnable> undo = new ArrayList<>(slots.size());
+		for (Slot slot : slots) {
+			SlotBitmap bitmap = slotAvailabilityIndex.get(facilityId, slot.getDateDisplay());
+			int from = SlotBitmap.unitOf(slot.getTimeStart());
+			int to = SlotBitmap.endUnitOf(slot.getTimeStart(), slot.getTimeEnd());
+			if (!bitmap.tryBook(from, to)) {
+				undo.forEach(Runnable::run);
+				throw new ResourceInvalidInputException(ErrorCodeEnum.ORDER_TIME_IS_USED, "This time have already used: " + slot.getTimeStart() +
+						" - " + slot.getTimeEnd());
+			}
+			undo.add(() -> bitmap.release(from, to));
+		}
+		TransactionUtils.afterRollback(() -> undo.forEach(Runnable::run));
+		// a TTL reload between here and commit does not see the claim; book again
+		slotAvailabilityIndex.bookAfterCommit(facilityId, slots);
+	}
+
+	/**
+	 * Writes the claim rows of a saved order and flushes them, so a unit taken
+	 * by another node is reported here rather than at commit. Stale rows on the
+	 * same units are deleted first: a failed flush marks the transaction
+	 * rollback-only, so the insert cannot be retried after the conflict.
+	 */
+	public void persist(String facilityId, String orderId, Collection<Slot> slots) {
+		List<SlotClaim> claims = new ArrayList<>();
+		Map<LocalDate, List<Integer>> unitsByDate = new HashMap<>();
+		for (Slot slot : slots) {
+			int to = SlotBitmap.endUnitOf(slot.getTimeStart(), slot.getTimeEnd());
+			for (int unit = SlotBitmap.unitOf(slot.getTimeStart()); unit < to; unit++) {
+				claims.add(new SlotClaim(facilityId, slot.getDateDisplay(), unit, orderId));
+				unitsByDate.computeIfAbsent(slot.getDateDisplay(), date -> new ArrayList<>()).add(unit);
+			}
+		}
+		Date expiredBefore = new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(CommonConstants.SLOT_TIME_CONDITION));
+		for (Map.Entry<LocalDate, List<Integer>> day : unitsByDate.entrySet()) {
+			int stale = slotClaimRepository.deleteStaleOnUnits(facilityId, day.getKey(), day.getValue(), orderId,
+					SlotAvailabilityIndex.BOOKED_STATUSES, OrderStatus.NEW, expiredBefore);
+			if (stale > 0) {
+				logger.info("SlotReservationService.persist: {} stale claims of facility {} on {} deleted", stale, facilityId, day.getKey());
+			}
+		}
+		try {
+			slotClaimRepository.saveAll(claims);
+			slotClaimRepository.flush();
+		} catch (DataIntegrityViolationException e) {
+			throw new ResourceInvalidInputException(ErrorCodeEnum.ORDER_TIME_IS_USED, "This time have already used");
+		}
+	}
+
+	public void reserve(String facilityId, String orderId, Collection<Slot> slots) {
+		claim(facilityId, slots);
+		persist(facilityId, orderId, slots);
+	}
+
+	/** Frees the order's slots once the current transaction commits. */
+	public void release(String facilityId, String orderId, Collection<Slot> slots) {
+		slotClaimRepository.deleteByOrderIds(Collections.singletonList(orderId));
+		slotAvailabilityIndex.releaseAfterCommit(facilityId, slots);
+	}
+
+	/**
+	 * Frees the slots of several orders with a single claim delete.
+	 *
+	 * @param facilityByOrder facility id of each order
+	 * @param slotsByOrder active slots of each order
+	 */
+	public void releaseAll(Map<String, String> facilityByOrder, Map<String, List<Slot>> slotsByOrder) {
+		if (facilityByOrder.isEmpty()) {
+			return;
+		}
+		slotClaimRepository.deleteByOrderIds(facilityByOrder.keySet());
+		for (Map.Entry<String, String> order : facilityByOrder.entrySet()) {
+			slotAvailabilityIndex.releaseAfterCommit(order.getValue(), slotsByOrder.getOrDefault(order.getKey(), Collections.emptyList()));
+		}
+	}
+
+	/**
+	 * Deletes the claim rows of past days and of orders that are no longer
+	 * active and booked. Every node may run it; the delete is idempotent.
+	 */
+	@Scheduled(cron = "${availability.claim-sweep-cron:0 */15 * * * *}")
+	public void sweepOrphanClaims() {
+		int deleted = slotClaimRepository.deleteOrphans(LocalDate.now(), SlotAvailabilityIndex.BOOKED_STATUSES);
+		if (deleted > 0) {
+			logger.info("SlotReservationService.sweepOrphanClaims: {} claims deleted", deleted);
+		}
+	}
+
+	/**
+	 * Writes the missing claim rows of booked orders from today on, one
+	 * transaction per order. Orders that already have claims are skipped, so it
+	 * is safe to run on every start. A conflict means two orders already booked
+	 * the same time; it is logged and the order left without claims.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void backfillClaims() {
+		if (!backfillEnabled) {
+			return;
+		}
+		List<Object[]> rows = entityManager.createQuery("select o.id, f.id, s from Slot s join s.order o join o.facility f "
+				+ "where s.active = true and o.active = true and o.status in :statuses and s.dateDisplay >= :today "
+				+ "and not exists (select c.id from SlotClaim c where c.orderId = o.id)", Object[].class)
+				.setParameter("statuses", SlotAvailabilityIndex.BOOKED_STATUSES)
+				.setParameter("today", LocalDate.now())
+				.getResultList();
+		Map<String, String> facilityByOrder = new LinkedHashMap<>();
+		Map<String, List<Slot>> slotsByOrder = new HashMap<>();
+		for (Object[] row : rows) {
+			facilityByOrder.put((String) row[0], (String) row[1]);
+			slotsByOrder.computeIfAbsent((String) row[0], orderId -> new ArrayList<>()).add((Slot) row[2]);
+		}
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		int written = 0;
+		for (Map.Entry<String, String> order : facilityByOrder.entrySet()) {
+			try {
+				transactionTemplate.execute(status -> {
+					persist(order.getValue(), order.getKey(), slotsByOrder.get(order.getKey()));
+					return null;
+				});
+				written++;
+			} catch (ResourceInvalidInputException e) {
+				logger.warn("SlotReservationService.backfillClaims: order {} overlaps another booked order", order.getKey());
+			}
+		}
+		logger.info("SlotReservationService.backfillClaims: claims written for {} of {} orders", written, facilityByOrder.size());
+	}
+}
@@ -0,0 +1,162 @@
+package com.dsoft.m2u.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import com.dsoft.m2u.common.CommonConstants;
+import com.dsoft.m2u.domain.ConditionPrice;
+import com.dsoft.m2u.domain.Facility;
+import com.dsoft.m2u.domain.Order;
+import com.dsoft.m2u.domain.OrderStatus;
+import com.dsoft.m2u.domain.OrderType;
+import com.dsoft.m2u.domain.PriceBySlot;
+import com.dsoft.m2u.domain.Slot;
+import com.dsoft.m2u.domain.SlotType;
+import com.dsoft.m2u.domain.TimeConfig;
+import com.dsoft.m2u.domain.TimeConfigType;
+import com.dsoft.m2u.repository.PriceBySlotRepository;
+import com.dsoft.m2u.repository.SlotRepository;
+import com.dsoft.m2u.repository.SlotTypeRepository;
+import com.dsoft.m2u.repository.TimeConfigRepository;
+
+/**
+ * In-memory stand-ins for the repositories the availability and pricing paths
+ * read, filled with generated reference data and bookings.<br>
+ * Each fake implements only the finder methods those paths call; any other
+ * method throws, so a benchmark that starts using a new query fails loudly
+ * instead of measuring an empty result. Data is generated from a fixed seed,
+ * so runs with the same parameters see the same rows.
+ */
+public class InMemoryRepositories {
+
+	private final List<String> facilityIds = new ArrayList<>();
+
+	private final List<PriceBySlot> priceRules = new ArrayList<>();
+
+	private final List<TimeConfig> notUseWindows = new ArrayList<>();
+
+	/** Active slots of booked orders by facility id and date, like the index the query uses. */
+	private final Map<String, List<Slot>> slotsByFacilityAndDate = new HashMap<>();
+
+	/**
+	 * @param facilities number of facilities
+	 * @param priceRulesPerFacility price rules of each facility, split between normal days and weekends
+	 * @param bookingsPerFacility booked slots of each facility on {@code date}
+	 * @param rejectIntervals NOT_USE windows, shared by all facilities
+	 */
+	public InMemoryRepositories(int facilities, int priceRulesPerFacility, int bookingsPerFacility, int rejectIntervals, LocalDate date) {
+		Random random = new Random(42);
+		SlotType normal = slotType(ConditionPrice.NORMAL.name());
+		SlotType weekend = slotType(ConditionPrice.WEEKEND.name());
+		int ruleMinutes = Math.max(CommonConstants.STEP_TIME, 24 * 60 / Math.max(1, priceRulesPerFacility / 2));
+		for (int f = 0; f < facilities; f++) {
+			Facility facility = new Facility();
+			facility.setId("facility-" + f);
+			facilityIds.add(facility.getId());
+			for (int r = 0; r < priceRulesPerFacility; r++) {
+				int from = Math.min(24 * 60 - 1, (r / 2) * ruleMinutes);
+				PriceBySlot rule = new PriceBySlot();
+				rule.setFacility(facility);
+				rule.setConditionPrice(r % 2 == 0 ? normal : weekend);
+				rule.setStartTime(minuteToTime(from));
+				rule.setEndTime(minuteToTime(Math.min(24 * 60 - 1, from + ruleMinutes)));
+				rule.setPrice(100000d + 10000d * random.nextInt(20));
+				priceRules.add(rule);
+			}
+			Order order = new Order(bookingsPerFacility, OrderType.B2C);
+			order.setFacility(facility);
+			order.setStatus(OrderStatus.PAID);
+			List<Slot> slots = new ArrayList<>(bookingsPerFacility);
+			for (int b = 0; b < bookingsPerFacility; b++) {
+				LocalTime start = minuteToTime(random.nextInt(24 * 60 / 5 - CommonConstants.STEP_TIME / 5) * 5);
+				Slot slot = new Slot(start, start.plusMinutes(CommonConstants.STEP_TIME), date, true);
+				slot.setOrder(order);
+				slots.add(slot);
+			}
+			slotsByFacilityAndDate.put(facility.getId() + ":" + date, slots);
+		}
+		// evenly spaced windows of a quarter of their spacing each
+		int spacing = rejectIntervals == 0 ? 0 : 24 * 60 / rejectIntervals;
+		for (int w = 0; w < rejectIntervals; w++) {
+			TimeConfig window = new TimeConfig();
+			window.setType(TimeConfigType.NOT_USE);
+			window.setActive(true);
+			window.setTimeStart(minuteToTime(w * spacing));
+			window.setTimeEnd(minuteToTime(w * spacing + Math.max(5, spacing / 4)));
+			notUseWindows.add(window);
+		}
+	}
+
+	public List<String> getFacilityIds() {
+		return facilityIds;
+	}
+
+	public PriceBySlotRepository priceBySlotRepository() {
+		return fake(PriceBySlotRepository.class, Collections.singletonMap("findAllByActive", args -> priceRules));
+	}
+
+	public TimeConfigRepository timeConfigRepository() {
+		Map<String, Function<Object[], Object>> methods = new HashMap<>();
+		methods.put("findAllByTypeAndActive", args -> args[0] == TimeConfigType.NOT_USE ? notUseWindows : Collections.emptyList());
+		// no special opening times
+		methods.put("getTimeByDate", args -> Collections.emptyList());
+		return fake(TimeConfigRepository.class, methods);
+	}
+
+	public SlotTypeRepository slotTypeRepository() {
+		// no special dates
+		return fake(SlotTypeRepository.class, Collections.singletonMap("getSlotTypeBySpecialDate", args -> Collections.emptyList()));
+	}
+
+	public SlotRepository slotRepository() {
+		return fake(SlotRepository.class, Collections.singletonMap("findByOrderFacilityIdAndActiveAndDateDisplayAndOrderStatusIn", args -> {
+			List<Slot> slots = slotsByFacilityAndDate.getOrDefault(args[0] + ":" + args[2], Collections.emptyList());
+			List<Slot> result = new ArrayList<>(slots.size());
+			for (Slot slot : slots) {
+				if (((Collection<?>) args[3]).contains(slot.getOrder().getStatus())) {
+					result.add(slot);
+				}
+			}
+			return result;
+		}));
+	}
+
+	private static SlotType slotType(String id) {
+		SlotType slotType = new SlotType();
+		slotType.setId(id);
+		return slotType;
+	}
+
+	private static LocalTime minuteToTime(int minute) {
+		return LocalTime.of(minute / 60, minute % 60);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <R> R fake(Class<R> repository, Map<String, Function<Object[], Object>> methods) {
+		return (R) Proxy.newProxyInstance(repository.getClassLoader(), new Class<?>[] { repository }, (proxy, method, args) -> {
+			Function<Object[], Object> implementation = methods.get(method.getName());
+			if (implementation != null) {
+				return implementation.apply(args);
+			}
+			switch (method.getName()) {
+			case "toString":
+				return "InMemory" + repository.getSimpleName();
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == args[0];
+			default:
+				throw new UnsupportedOperationException(repository.getSimpleName() + "." + method.getName() + " is not faked");
+			}
+		});
+	}
+}
@@ -0,0 +1,110 @@
+package com.dsoft.m2u.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.dsoft.m2u.api.dto.OrderDetailDTO;
+import com.dsoft.m2u.api.dto.OrderResDTO;
+import com.dsoft.m2u.domain.Facility;
+import com.dsoft.m2u.domain.Order;
+import com.dsoft.m2u.domain.OrderStatus;
+import com.dsoft.m2u.domain.OrderType;
+import com.dsoft.m2u.utils.CompiledMapper;
+import com.dsoft.m2u.utils.MapperUtil;
+
+/**
+ * Maps a page of orders to the admin list and detail DTOs with
+ * {@link CompiledMapper} and with the reflective {@link MapperUtil} it
+ * replaces.<br>
+ * The mappers ignore the same properties as the ones in OrderService. Run
+ * with the gc profiler to compare allocation as well as throughput:
+ * {@code java -jar benchmarks.jar OrderMappingBenchmark -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderMappingBenchmark {
+
+	@Param({ "1", "50" })
+	private int rows;
+
+	private CompiledMapper<Order, OrderResDTO> orderResMapper;
+
+	private CompiledMapper<Order, OrderDetailDTO> orderDetailMapper;
+
+	private List<Order> orders;
+
+	@Setup
+	public void setUp() {
+		orderResMapper = CompiledMapper.of(Order.class, OrderResDTO.class, "facilityTitleVi", "facilityTitleEn", "amount", "unitPrice",
+				"stories");
+		orderDetailMapper = CompiledMapper.of(Order.class, OrderDetailDTO.class, "orderDateCreate", "amount", "unitPrice", "stories",
+				"payments");
+		if (!orderResMapper.isCompiled() || !orderDetailMapper.isCompiled()) {
+			// a mapper that fell back to MapperUtil would only measure MapperUtil twice
+			throw new IllegalStateException("CompiledMapper fell back to MapperUtil");
+		}
+		Facility facility = new Facility();
+		facility.setId("facility-1");
+		facility.setLocation("Da Nang");
+		orders = new ArrayList<>(rows);
+		for (int i = 0; i < rows; i++) {
+			Order order = new Order(1, OrderType.B2C);
+			order.setFacility(facility);
+			order.setStatus(OrderStatus.values()[i % OrderStatus.values().length]);
+			order.setAmount(100000d * (i + 1));
+			order.setCreatedBy("firebase-" + i);
+			order.setComment("comment " + i);
+			order.setActive(true);
+			order.setCreatedAt(new Date());
+			order.setUpdatedAt(new Date());
+			orders.add(order);
+		}
+	}
+
+	@Benchmark
+	public void compiledOrderRes(Blackhole blackhole) {
+		for (Order order : orders) {
+			blackhole.consume(orderResMapper.map(order));
+		}
+	}
+
+	@Benchmark
+	public void reflectiveOrderRes(Blackhole blackhole) {
+		for (Order order : orders) {
+			blackhole.consume(MapperUtil.mapper(order, OrderResDTO.class));
+		}
+	}
+
+	@Benchmark
+	public void compiledOrderDetail(Blackhole blackhole) {
+		for (Order order : orders) {
+			blackhole.consume(orderDetailMapper.map(order));
+		}
+	}
+
+	@Benchmark
+	public void reflectiveOrderDetail(Blackhole blackhole) {
+		for (Order order : orders) {
+			blackhole.consume(MapperUtil.mapper(order, OrderDetailDTO.class));
+		}
+	}
+}
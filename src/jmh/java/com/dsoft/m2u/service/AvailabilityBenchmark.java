@@ -0,0 +1,203 @@
+package com.dsoft.m2u.service;
+
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.util.ReflectionUtils;
+
+import com.dsoft.m2u.api.dto.MobileTimeResDTO;
+import com.dsoft.m2u.api.dto.OrderTimeDTO;
+import com.dsoft.m2u.benchmark.InMemoryRepositories;
+import com.dsoft.m2u.common.CommonConstants;
+
+/**
+ * Availability and pricing of a facility and date, as computed for the mobile
+ * time picker and for every order, on {@link InMemoryRepositories} instead of
+ * the database.<br>
+ * {@code warmTimes} measures {@code getStartAndEndTimeByDate} with the price
+ * tables, calendar and bitmaps cached, i.e. {@code getTime}, the per-minute
+ * price lookup and the DTO assembly. {@code coldTimes} rebuilds all three on
+ * every call. {@code daySnapshot} is the per-date part of order creation,
+ * including {@code mergeAndSortTimeReject}, and {@code removeDuplicateSlots}
+ * is {@code checkAndRemoveDuplicateSlot} on a request with one duplicate per
+ * two times. The benchmark sits in the service package to call those
+ * package-private methods directly.
+ * <p>
+ * Run with the gc profiler for the allocation rate, and with the service log
+ * level at WARN, since {@code getStartAndEndTimeByDate} logs every call:
+ * {@code java -jar benchmarks.jar AvailabilityBenchmark -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvailabilityBenchmark {
+
+	@Param({ "1", "20" })
+	private int facilities;
+
+	@Param({ "4", "48" })
+	private int priceRules;
+
+	@Param({ "0", "100" })
+	private int bookings;
+
+	@Param({ "0", "8" })
+	private int rejectIntervals;
+
+	private String date;
+
+	private List<String> facilityIds;
+
+	private OrderService warm;
+
+	private OrderService cold;
+
+	private PriceTableService coldPrices;
+
+	private OperatingCalendarService coldCalendar;
+
+	private List<OrderTimeDTO> requestedTimes;
+
+	@Setup
+	public void setUp() {
+		// tomorrow, so no time of the day is in the past
+		LocalDate day = LocalDate.now().plusDays(1);
+		date = day.toString();
+		InMemoryRepositories repositories = new InMemoryRepositories(facilities, priceRules, bookings, rejectIntervals, day);
+		facilityIds = repositories.getFacilityIds();
+
+		OperatingCalendarService calendar = calendar(repositories);
+		warm = orderService(calendar, priceTable(repositories, calendar), availabilityIndex(repositories, 600));
+		coldCalendar = calendar(repositories);
+		coldPrices = priceTable(repositories, coldCalendar);
+		// a negative TTL reloads the bitmap on every read
+		cold = orderService(coldCalendar, coldPrices, availabilityIndex(repositories, -1));
+
+		requestedTimes = new ArrayList<>();
+		for (int i = 0; i < Math.max(2, bookings); i++) {
+			LocalTime start = LocalTime.of(0, 0).plusMinutes((long) (i / 2) * CommonConstants.STEP_TIME);
+			OrderTimeDTO time = new OrderTimeDTO();
+			time.setDateDisplay(date);
+			time.setStartTime(start.toString());
+			time.setEndTime(start.plusMinutes(CommonConstants.STEP_TIME).toString());
+			requestedTimes.add(time);
+		}
+	}
+
+	@Benchmark
+	public MobileTimeResDTO warmTimes() {
+		return warm.getStartAndEndTimeByDate(date, nextFacilityId());
+	}
+
+	@Benchmark
+	public MobileTimeResDTO coldTimes() {
+		coldPrices.invalidate();
+		coldCalendar.invalidate();
+		return cold.getStartAndEndTimeByDate(date, nextFacilityId());
+	}
+
+	@Benchmark
+	public DaySnapshot daySnapshot() {
+		return warm.loadDaySnapshot(nextFacilityId(), date);
+	}
+
+	@Benchmark
+	public List<OrderTimeDTO> removeDuplicateSlots() {
+		return warm.checkAndRemoveDuplicateSlot(requestedTimes);
+	}
+
+	private String nextFacilityId() {
+		return facilityIds.get(ThreadLocalRandom.current().nextInt(facilityIds.size()));
+	}
+
+	private static OperatingCalendarService calendar(InMemoryRepositories repositories) {
+		OperatingCalendarService calendar = new OperatingCalendarService();
+		inject(calendar, "timeConfigRepository", repositories.timeConfigRepository());
+		inject(calendar, "slotTypeRepository", repositories.slotTypeRepository());
+		inject(calendar, "horizonDays", 60);
+		inject(calendar, "ttlSeconds", 600L);
+		return calendar;
+	}
+
+	private static PriceTableService priceTable(InMemoryRepositories repositories, OperatingCalendarService calendar) {
+		PriceTableService priceTable = new PriceTableService();
+		inject(priceTable, "priceBySlotRepository", repositories.priceBySlotRepository());
+		inject(priceTable, "operatingCalendarService", calendar);
+		inject(priceTable, "ttlSeconds", 600L);
+		return priceTable;
+	}
+
+	private static SlotAvailabilityIndex availabilityIndex(InMemoryRepositories repositories, long ttlSeconds) {
+		SlotAvailabilityIndex index = new SlotAvailabilityIndex();
+		inject(index, "slotRepository", repositories.slotRepository());
+		ApplicationEventPublisher noEvents = event -> {
+			// nothing listens in the benchmark
+		};
+		inject(index, "eventPublisher", noEvents);
+		inject(index, "transactionManager", new NoTransactionManager());
+		inject(index, "ttlSeconds", ttlSeconds);
+		index.init();
+		return index;
+	}
+
+	private static OrderService orderService(OperatingCalendarService calendar, PriceTableService priceTable, SlotAvailabilityIndex index) {
+		OrderService orderService = new OrderService();
+		inject(orderService, "operatingCalendarService", calendar);
+		inject(orderService, "priceTableService", priceTable);
+		inject(orderService, "slotAvailabilityIndex", index);
+		return orderService;
+	}
+
+	/** Sets an {@code @Autowired} or {@code @Value} field, as Spring would. */
+	private static void inject(Object target, String name, Object value) {
+		Field field = ReflectionUtils.findField(target.getClass(), name);
+		if (field == null) {
+			throw new IllegalStateException(target.getClass().getSimpleName() + " has no field " + name);
+		}
+		ReflectionUtils.makeAccessible(field);
+		ReflectionUtils.setField(field, target, value);
+	}
+
+	/** The fakes need no transaction; lets the services' TransactionTemplates run as they are. */
+	private static final class NoTransactionManager implements PlatformTransactionManager {
+
+		@Override
+		public TransactionStatus getTransaction(TransactionDefinition definition) {
+			return new SimpleTransactionStatus();
+		}
+
+		@Override
+		public void commit(TransactionStatus status) {
+			// nothing to commit
+		}
+
+		@Override
+		public void rollback(TransactionStatus status) {
+			// nothing to roll back
+		}
+	}
+}
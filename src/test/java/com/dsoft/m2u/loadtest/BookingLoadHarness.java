@@ -0,0 +1,413 @@
+package com.dsoft.m2u.loadtest;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.internal.SessionFactoryImpl;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.dsoft.m2u.api.dto.OrderTimeDTO;
+import com.dsoft.m2u.api.dto.TimeResDTO;
+import com.dsoft.m2u.api.request.MobileOrderRequest;
+import com.dsoft.m2u.api.request.OrderReviewerUpdateRequest;
+import com.dsoft.m2u.common.CommonConstants;
+import com.dsoft.m2u.domain.Order;
+import com.dsoft.m2u.domain.OrderStatus;
+import com.dsoft.m2u.domain.Slot;
+import com.dsoft.m2u.exception.ResourceInvalidInputException;
+import com.dsoft.m2u.service.OrderDetailCache;
+import com.dsoft.m2u.service.OrderSearchIndex;
+import com.dsoft.m2u.service.OrderService;
+import com.dsoft.m2u.service.OrderTimeoutSweeper;
+import com.dsoft.m2u.service.SlotAvailabilityIndex;
+/**
+ * [Description]: In-process load test of booking, status updates and the
+ * timeout sweep, run at startup with the "loadtest" profile.<br>
+ * [ Remarks ]: Phase one books {@code loadtest.bookings} single-slot orders
+ * from {@code loadtest.threads} threads, all aimed at the first
+ * {@code loadtest.hot-slots} bookable times of the configured facilities, so
+ * most attempts collide. Phase two runs a second booking wave together with
+ * status updates of the booked orders and timeout sweeps. Latency percentiles
+ * and throughput are logged per operation. Afterwards no two active, booked
+ * orders may hold overlapping slots of a facility and date; a violation fails
+ * the run. Facilities and users must exist in the database the profile points
+ * to. Push is off under the profile, see {@link LoadTestPropertyOverrides}.
+ * The harness lives in the test sources and is started with
+ * {@code mvn spring-boot:run -Dspring-boot.run.useTestClasspath=true -Dspring-boot.run.profiles=loadtest}.
+ * Every order a harness booking commits is recorded by id; those orders are
+ * deleted at the end, and their slots, cached details and search entries
+ * evicted, unless {@code loadtest.keep-orders} is set. Orders booked by
+ * anyone else in the meantime are left alone.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ *
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Component
+@Profile("loadtest")
+public class BookingLoadHarness implements CommandLineRunner {
+
+	private static final Logger logger = LogManager.getLogger(BookingLoadHarness.class);
+
+	private static final List<OrderStatus> UPDATE_STATUSES = Arrays.asList(OrderStatus.PAID, OrderStatus.APPROVED, OrderStatus.REJECTED);
+
+	private static final int DELETE_BATCH = 500;
+
+	/** Everything that refers to an order, then the orders themselves. */
+	private static final List<String> DELETES = Arrays.asList(
+			"delete from SlotClaim c where c.orderId in :orderIds",
+			"delete from NotificationOutbox n where n.orderId in :orderIds",
+			"delete from FcmDeadLetter d where d.orderId in :orderIds",
+			"delete from Slot s where s.order.id in :orderIds",
+			"delete from Story s where s.order.id in :orderIds",
+			"delete from Order o where o.id in :orderIds");
+
+	@Autowired
+	private OrderService orderService;
+
+	@Autowired
+	private OrderTimeoutSweeper orderTimeoutSweeper;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private SlotAvailabilityIndex slotAvailabilityIndex;
+
+	@Autowired
+	private OrderDetailCache orderDetailCache;
+
+	@Autowired
+	private OrderSearchIndex orderSearchIndex;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Value("${loadtest.facility-ids}")
+	private String[] facilityIds;
+
+	@Value("${loadtest.fire-base-ids}")
+	private String[] fireBaseIds;
+
+	@Value("${loadtest.days-ahead:1}")
+	private int daysAhead;
+
+	@Value("${loadtest.threads:64}")
+	private int threads;
+
+	@Value("${loadtest.bookings:2000}")
+	private int bookings;
+
+	@Value("${loadtest.hot-slots:20}")
+	private int hotSlots;
+
+	@Value("${loadtest.status-updates:500}")
+	private int statusUpdates;
+
+	@Value("${loadtest.sweeps:20}")
+	private int sweeps;
+
+	@Value("${loadtest.keep-orders:false}")
+	private boolean keepOrders;
+
+	/** Ids of the orders committed by the harness's own bookings. */
+	private final Set<String> runOrderIds = ConcurrentHashMap.newKeySet();
+
+	/** Set while a harness thread books, so only its own orders are recorded. */
+	private final ThreadLocal<Boolean> booking = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+	/** Latencies and outcomes of one kind of operation. */
+	private static final class Stats {
+
+		private final String name;
+		private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+		private final AtomicLong rejected = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+
+		private Stats(String name) {
+			this.name = name;
+		}
+
+		private void run(Runnable operation) {
+			long started = System.nanoTime();
+			try {
+				operation.run();
+			} catch (ResourceInvalidInputException e) {
+				// slot taken or not bookable any more: expected under contention
+				rejected.incrementAndGet();
+			} catch (RuntimeException e) {
+				if (failed.incrementAndGet() <= 10) {
+					logger.warn("BookingLoadHarness: {} failed", name, e);
+				}
+			}
+			latencies.add(System.nanoTime() - started);
+		}
+
+		private void report(long elapsedNanos) {
+			List<Long> sorted = new ArrayList<>(latencies);
+			if (sorted.isEmpty()) {
+				logger.info("BookingLoadHarness: {} not run", name);
+				return;
+			}
+			Collections.sort(sorted);
+			logger.info("BookingLoadHarness: {} count={} rejected={} failed={} p50={}ms p99={}ms max={}ms throughput={}/s", name,
+					sorted.size(), rejected.get(), failed.get(), millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.99)),
+					millis(sorted.get(sorted.size() - 1)), sorted.size() * TimeUnit.SECONDS.toNanos(1) / Math.max(elapsedNanos, 1));
+		}
+
+		private static long percentile(List<Long> sorted, double quantile) {
+			return sorted.get((int) Math.min(sorted.size() - 1, Math.ceil(quantile * sorted.size()) - 1));
+		}
+
+		private static String millis(long nanos) {
+			return String.format("%.1f", nanos / 1e6);
+		}
+	}
+
+	/** Records the orders the harness books as their transactions commit. */
+	@PostConstruct
+	public void registerOrderListener() {
+		EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImpl.class).getServiceRegistry()
+				.getService(EventListenerRegistry.class);
+		registry.appendListeners(EventType.POST_COMMIT_INSERT, new RunOrderListener(booking, runOrderIds));
+	}
+
+	@Override
+	public void run(String... args) throws Exception {
+		try {
+			runPhases();
+		} finally {
+			if (keepOrders) {
+				logger.info("BookingLoadHarness: {} orders of the run kept", runOrderIds.size());
+			} else {
+				deleteRunOrders();
+			}
+		}
+	}
+
+	private void runPhases() throws InterruptedException {
+		LocalDate date = LocalDate.now().plusDays(daysAhead);
+		Map<String, List<String>> times = new HashMap<>();
+		for (String facilityId : facilityIds) {
+			List<String> bookable = new ArrayList<>();
+			for (TimeResDTO time : orderService.getStartAndEndTimeByDate(date.toString(), facilityId).getTimes()) {
+				if (bookable.size() < hotSlots) {
+					bookable.add(time.getTime());
+				}
+			}
+			times.put(facilityId, bookable);
+			logger.info("BookingLoadHarness: facility {} has {} hot times on {}", facilityId, bookable.size(), date);
+		}
+
+		Stats booking = new Stats("book");
+		long elapsed = runConcurrently(Collections.nCopies(bookings, () -> booking.run(() -> book(date, times))));
+		booking.report(elapsed);
+
+		List<String> orderIds = new ArrayList<>(runOrderIds);
+		Collections.shuffle(orderIds);
+		Stats rebooking = new Stats("book during updates");
+		Stats updating = new Stats("update status");
+		Stats sweeping = new Stats("sweep");
+		List<Runnable> mixed = new ArrayList<>();
+		for (int i = 0; i < bookings / 2; i++) {
+			mixed.add(() -> rebooking.run(() -> book(date, times)));
+		}
+		for (int i = 0; i < Math.min(statusUpdates, orderIds.size()); i++) {
+			String orderId = orderIds.get(i);
+			mixed.add(() -> updating.run(() -> updateStatus(orderId)));
+		}
+		for (int i = 0; i < sweeps; i++) {
+			mixed.add(() -> sweeping.run(orderTimeoutSweeper::sweep));
+		}
+		Collections.shuffle(mixed);
+		elapsed = runConcurrently(mixed);
+		rebooking.report(elapsed);
+		updating.report(elapsed);
+		sweeping.report(elapsed);
+
+		List<Object[]> overlaps = findOverlaps(date);
+		for (Object[] overlap : overlaps) {
+			logger.error("BookingLoadHarness: orders {} and {} both hold facility {} on {} at {}", overlap);
+		}
+		if (!overlaps.isEmpty()) {
+			throw new IllegalStateException(overlaps.size() + " double bookings on " + date);
+		}
+		logger.info("BookingLoadHarness: no double bookings on {}", date);
+	}
+
+	private void book(LocalDate date, Map<String, List<String>> times) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		String facilityId = facilityIds[random.nextInt(facilityIds.length)];
+		List<String> bookable = times.get(facilityId);
+		if (bookable.isEmpty()) {
+			return;
+		}
+		LocalTime start = LocalTime.parse(bookable.get(random.nextInt(bookable.size())));
+		OrderTimeDTO time = new OrderTimeDTO();
+		time.setDateDisplay(date.toString());
+		time.setStartTime(start.toString());
+		time.setEndTime(start.plusMinutes(CommonConstants.STEP_TIME).toString());
+		MobileOrderRequest request = new MobileOrderRequest();
+		request.setFacilityId(facilityId);
+		request.setFireBaseId(fireBaseIds[random.nextInt(fireBaseIds.length)]);
+		request.setTime(new ArrayList<>(Collections.singletonList(time)));
+		request.setStories(new ArrayList<>());
+		booking.set(Boolean.TRUE);
+		try {
+			orderService.createOrderForMobile(request);
+		} finally {
+			booking.remove();
+		}
+	}
+
+	private void updateStatus(String orderId) {
+		OrderReviewerUpdateRequest request = new OrderReviewerUpdateRequest();
+		request.setOrderId(orderId);
+		request.setStatus(UPDATE_STATUSES.get(ThreadLocalRandom.current().nextInt(UPDATE_STATUSES.size())).toString());
+		request.setComment("load test");
+		orderService.updateStatus(request);
+	}
+
+	/** Runs the tasks on {@code loadtest.threads} threads, all released at once. @return elapsed nanos */
+	private long runConcurrently(List<Runnable> tasks) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		for (Runnable task : tasks) {
+			executor.execute(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				task.run();
+			});
+		}
+		long started = System.nanoTime();
+		start.countDown();
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.HOURS);
+		return System.nanoTime() - started;
+	}
+
+	/**
+	 * Deletes the orders of the run and everything that refers to them, one
+	 * transaction per batch. After each batch commits, the slots its orders held
+	 * are released from the bitmaps and their cached details evicted; the search
+	 * index drops them on the rebuild requested at the end.
+	 */
+	private void deleteRunOrders() {
+		List<String> orderIds = new ArrayList<>(runOrderIds);
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		int deleted = 0;
+		for (int from = 0; from < orderIds.size(); from += DELETE_BATCH) {
+			List<String> batch = orderIds.subList(from, Math.min(from + DELETE_BATCH, orderIds.size()));
+			try {
+				transactionTemplate.execute(status -> {
+					Map<String, List<Slot>> heldSlots = new HashMap<>();
+					for (Object[] row : entityManager.createQuery("select f.id, s from Slot s join s.order o join o.facility f "
+							+ "where o.id in :orderIds and s.active = true and o.active = true and o.status in :booked", Object[].class)
+							.setParameter("orderIds", batch)
+							.setParameter("booked", SlotAvailabilityIndex.BOOKED_STATUSES)
+							.getResultList()) {
+						heldSlots.computeIfAbsent((String) row[0], facilityId -> new ArrayList<>()).add((Slot) row[1]);
+					}
+					for (String jpql : DELETES) {
+						entityManager.createQuery(jpql).setParameter("orderIds", batch).executeUpdate();
+					}
+					heldSlots.forEach(slotAvailabilityIndex::releaseAfterCommit);
+					batch.forEach(orderDetailCache::invalidate);
+					return null;
+				});
+				deleted += batch.size();
+			} catch (RuntimeException e) {
+				logger.error("BookingLoadHarness: cannot delete orders {}", batch, e);
+			}
+		}
+		orderSearchIndex.requestRebuild();
+		logger.info("BookingLoadHarness: {} of {} orders of the run deleted", deleted, orderIds.size());
+	}
+
+	/** Pairs of active, booked orders whose active slots overlap on the same facility and date. */
+	private List<Object[]> findOverlaps(LocalDate date) {
+		return entityManager.createQuery("select o1.id, o2.id, f.id, s1.dateDisplay, s1.timeStart "
+				+ "from Slot s1 join s1.order o1 join o1.facility f, Slot s2 join s2.order o2 "
+				+ "where o2.facility = f and s2.dateDisplay = s1.dateDisplay and o1.id < o2.id "
+				+ "and s1.timeStart < s2.timeEnd and s2.timeStart < s1.timeEnd "
+				+ "and s1.active = true and s2.active = true and o1.active = true and o2.active = true "
+				+ "and o1.status in :booked and o2.status in :booked "
+				+ "and s1.dateDisplay = :date and f.id in :facilityIds", Object[].class)
+				.setParameter("booked", SlotAvailabilityIndex.BOOKED_STATUSES)
+				.setParameter("date", date)
+				.setParameter("facilityIds", Arrays.asList(facilityIds))
+				.getResultList();
+	}
+
+	/** Adds the id of every order inserted while the committing thread is booking for the harness. */
+	private static final class RunOrderListener implements PostCommitInsertEventListener {
+
+		private static final long serialVersionUID = -4417839526201093755L;
+
+		private final transient ThreadLocal<Boolean> booking;
+
+		private final transient Set<String> runOrderIds;
+
+		private RunOrderListener(ThreadLocal<Boolean> booking, Set<String> runOrderIds) {
+			this.booking = booking;
+			this.runOrderIds = runOrderIds;
+		}
+
+		@Override
+		public boolean requiresPostCommitHanding(EntityPersister persister) {
+			return Order.class.isAssignableFrom(persister.getMappedClass());
+		}
+
+		@Override
+		public void onPostInsert(PostInsertEvent event) {
+			if (booking.get() && event.getEntity() instanceof Order) {
+				runOrderIds.add(((Order) event.getEntity()).getId());
+			}
+		}
+
+		@Override
+		public void onPostInsertCommitFailed(PostInsertEvent event) {
+			// rolled back: nothing to delete
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.dsoft.m2u.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.stereotype.Component;
+/**
+ * [Description]: Properties the "loadtest" profile always runs with.<br>
+ * [ Remarks ]: Push is switched off, so the orders booked by
+ * {@link BookingLoadHarness} send nothing to the devices of the configured
+ * users, and delivery runs on the relay thread instead of the async workers.
+ * The properties are added ahead of all other sources before any bean is
+ * created, so no configuration file can turn push back on by mistake.<br>
+ * [Copyright]: Copyright (c) 2020<br>
+ *
+ * @author D-Soft Joint Stock Company
+ * @version 1.0
+ */
+@Component
+@Profile("loadtest")
+public class LoadTestPropertyOverrides implements BeanFactoryPostProcessor, EnvironmentAware {
+
+	private ConfigurableEnvironment environment;
+
+	@Override
+	public void setEnvironment(Environment environment) {
+		this.environment = (ConfigurableEnvironment) environment;
+	}
+
+	@Override
+	public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+		Map<String, Object> overrides = new HashMap<>();
+		overrides.put("push.notification.enabled", "false");
+		overrides.put("push.notification.async.enabled", "false");
+		environment.getPropertySources().addFirst(new MapPropertySource("loadtest-overrides", overrides));
+	}
+}
@@ -0,0 +1,194 @@
+package com.dsoft.m2u.push.notification.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.dsoft.m2u.api.request.PushNotificationRequest;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+
+/**
+ * Sends through the real Firebase Admin SDK to a fake FCM batch endpoint.<br>
+ * The endpoint reads the token of every message in a batch request and
+ * answers each with success, or with UNREGISTERED for tokens starting with
+ * "dead", so the test can check that every outcome comes back at the
+ * position of its own token, across the split into batches of
+ * {@link FCMMulticastService#MAX_BATCH}.
+ */
+class FCMMulticastServiceTest {
+
+	private static final String BOUNDARY = "batch_fake_fcm";
+
+	private static final Pattern TOKEN = Pattern.compile("\"token\"\\s*:\\s*\"([^\"]+)\"");
+
+	private static final String UNREGISTERED = "{\"error\":{\"code\":404,\"message\":\"Requested entity was not found.\","
+			+ "\"status\":\"NOT_FOUND\",\"details\":[{\"@type\":\"type.googleapis.com/google.firebase.fcm.v1.FcmError\","
+			+ "\"errorCode\":\"UNREGISTERED\"}]}}";
+
+	private final List<String> batchBodies = new CopyOnWriteArrayList<>();
+
+	private volatile boolean rejectBatches;
+
+	private FirebaseApp app;
+
+	private final FCMMulticastService service = new FCMMulticastService();
+
+	@BeforeEach
+	void setUp() {
+		FirebaseOptions options = new FirebaseOptions.Builder()
+				.setCredentials(GoogleCredentials.create(new AccessToken("test-token", new Date(System.currentTimeMillis() + 3600000L))))
+				.setProjectId("test-project")
+				.setHttpTransport(new FakeFcmEndpoint())
+				.build();
+		app = FirebaseApp.initializeApp(options);
+	}
+
+	@AfterEach
+	void tearDown() {
+		app.delete();
+	}
+
+	@Test
+	void multicastResultsFollowTheirTokensAcrossBatches() {
+		List<String> tokens = new ArrayList<>();
+		for (int i = 0; i < FCMMulticastService.MAX_BATCH + 20; i++) {
+			tokens.add((i % 7 == 3 ? "dead-" : "live-") + i);
+		}
+
+		List<Exception> results = service.sendMulticast(request(null), tokens);
+
+		assertEquals(2, batchBodies.size());
+		assertEquals(tokens.size(), results.size());
+		for (int i = 0; i < tokens.size(); i++) {
+			if (tokens.get(i).startsWith("dead")) {
+				assertNotNull(results.get(i), tokens.get(i));
+				assertSame(FcmErrorClassifier.Kind.INVALID_TOKEN, FcmErrorClassifier.classify(results.get(i)), tokens.get(i));
+			} else {
+				assertNull(results.get(i), tokens.get(i));
+			}
+		}
+	}
+
+	@Test
+	void sendAllResultsFollowTheirRequests() {
+		List<PushNotificationRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 12; i++) {
+			requests.add(request((i % 4 == 0 ? "dead-" : "live-") + i));
+		}
+
+		List<Exception> results = service.sendAll(requests);
+
+		assertEquals(1, batchBodies.size());
+		for (int i = 0; i < requests.size(); i++) {
+			assertEquals(requests.get(i).getToken().startsWith("dead"), results.get(i) != null, requests.get(i).getToken());
+		}
+	}
+
+	@Test
+	void rejectedBatchFailsAllItsTokens() {
+		rejectBatches = true;
+		List<String> tokens = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			tokens.add("live-" + i);
+		}
+
+		List<Exception> results = service.sendMulticast(request(null), tokens);
+
+		assertEquals(3, results.size());
+		results.forEach(result -> assertNotNull(result));
+		assertSame(results.get(0), results.get(2));
+	}
+
+	@Test
+	void sharedBuilderDropsNullDataAndKeepsTheAndroidSettings() {
+		PushNotificationRequest request = request("live-1");
+		request.getData().put("comment", null);
+
+		List<Exception> results = service.sendAll(Collections.singletonList(request));
+
+		assertNull(results.get(0));
+		String body = batchBodies.get(0);
+		assertTrue(body.contains("\"orderNo\""), body);
+		assertFalse(body.contains("\"comment\""), body);
+		assertTrue(body.contains("\"collapse_key\":\"Me2u\""), body);
+	}
+
+	private static PushNotificationRequest request(String token) {
+		Map<String, String> data = new HashMap<>();
+		data.put("orderNo", "M2U-1");
+		PushNotificationRequest request = new PushNotificationRequest();
+		request.setTitle("Đơn hàng M2U-1");
+		request.setMessage("Đã thanh toán thành công. Vui lòng chờ kiểm duyệt.");
+		request.setTopic("Me2u");
+		request.setToken(token);
+		request.setData(data);
+		return request;
+	}
+
+	/** Answers FCM batch requests part by part, in the order of the messages in the request. */
+	private final class FakeFcmEndpoint extends MockHttpTransport {
+
+		@Override
+		public LowLevelHttpRequest buildRequest(String method, String url) {
+			return new MockLowLevelHttpRequest(url) {
+
+				@Override
+				public LowLevelHttpResponse execute() throws IOException {
+					String body = getContentAsString();
+					batchBodies.add(body);
+					if (rejectBatches) {
+						return new MockLowLevelHttpResponse().setStatusCode(400).setContentType("application/json")
+								.setContent("{\"error\":{\"code\":400,\"message\":\"Bad batch\",\"status\":\"INVALID_ARGUMENT\"}}");
+					}
+					StringBuilder response = new StringBuilder();
+					Matcher tokens = TOKEN.matcher(body);
+					for (int part = 1; tokens.find(); part++) {
+						String token = tokens.group(1);
+						response.append("--").append(BOUNDARY).append("\r\n")
+								.append("Content-Type: application/http\r\n")
+								.append("Content-ID: response-").append(part).append("\r\n\r\n");
+						if (token.startsWith("dead")) {
+							response.append("HTTP/1.1 404 Not Found\r\n")
+									.append("Content-Type: application/json; charset=UTF-8\r\n\r\n")
+									.append(UNREGISTERED).append("\r\n");
+						} else {
+							response.append("HTTP/1.1 200 OK\r\n")
+									.append("Content-Type: application/json; charset=UTF-8\r\n\r\n")
+									.append("{\"name\":\"projects/test-project/messages/").append(token).append("\"}\r\n");
+						}
+					}
+					response.append("--").append(BOUNDARY).append("--\r\n");
+					return new MockLowLevelHttpResponse().setStatusCode(200)
+							.setContentType("multipart/mixed; boundary=" + BOUNDARY)
+							.setContent(response.toString());
+				}
+			};
+		}
+	}
+}
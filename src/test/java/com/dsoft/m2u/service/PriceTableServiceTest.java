@@ -0,0 +1,219 @@
+package com.dsoft.m2u.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.dsoft.m2u.common.CommonConstants;
+import com.dsoft.m2u.domain.ConditionPrice;
+import com.dsoft.m2u.domain.Facility;
+import com.dsoft.m2u.domain.PriceBySlot;
+import com.dsoft.m2u.domain.SlotType;
+import com.dsoft.m2u.repository.PriceBySlotRepository;
+import com.dsoft.m2u.repository.SlotTypeRepository;
+import com.dsoft.m2u.repository.TimeConfigRepository;
+
+/**
+ * Pins the prices the compiled tables quote to those of the per-request
+ * lookup they replaced, OrderService.getPrice, which is copied here as
+ * {@link #baselinePrice}: the first matching special-date rule, else the
+ * last matching weekend or normal rule, else the default price.<br>
+ * A special date that falls on a weekend takes the special price, as the
+ * availability screen always showed. Order creation used to charge the
+ * weekend price on such a date; that is the one intended change.
+ */
+class PriceTableServiceTest {
+
+	private static final String FACILITY_ID = "facility-1";
+
+	private static final LocalDate NORMAL_DAY = LocalDate.of(2020, 6, 10);
+
+	private static final LocalDate WEEKEND_DAY = LocalDate.of(2020, 6, 13);
+
+	private static final LocalDate SPECIAL_DAY = LocalDate.of(2020, 9, 2);
+
+	private static final LocalDate SPECIAL_WEEKEND_DAY = LocalDate.of(2020, 12, 26);
+
+	private final List<PriceBySlot> rules = new ArrayList<>();
+
+	private final List<SlotType> specialDates = new ArrayList<>();
+
+	private PriceTableService priceTable;
+
+	@BeforeEach
+	void setUp() {
+		Facility facility = facility(FACILITY_ID);
+		Facility other = facility("facility-2");
+		SlotType normal = slotType(ConditionPrice.NORMAL.name(), null);
+		SlotType weekend = slotType(ConditionPrice.WEEKEND.name(), null);
+		SlotType nationalDay = slotType("NATIONAL_DAY", SPECIAL_DAY);
+		SlotType christmas = slotType("CHRISTMAS", SPECIAL_WEEKEND_DAY);
+		specialDates.addAll(Arrays.asList(nationalDay, christmas));
+
+		rules.add(rule(facility, normal, "08:00", "12:00", 100000));
+		rules.add(rule(facility, normal, "12:00", "18:00", 120000));
+		// overlaps the rule before it; the later one wins
+		rules.add(rule(facility, normal, "17:00", "18:00", 130000));
+		rules.add(rule(facility, weekend, "08:00", "18:00", 150000));
+		rules.add(rule(facility, nationalDay, "10:00", "14:00", 300000));
+		// overlaps the rule before it; the earlier one wins
+		rules.add(rule(facility, nationalDay, "13:00", "15:00", 310000));
+		rules.add(rule(facility, christmas, "09:00", "11:00", 250000));
+		rules.add(rule(other, normal, "00:00", "23:55", 90000));
+		rules.add(rule(other, nationalDay, "10:00", "14:00", 90000));
+
+		OperatingCalendarService calendar = new OperatingCalendarService();
+		ReflectionTestUtils.setField(calendar, "timeConfigRepository", timeConfigRepository());
+		ReflectionTestUtils.setField(calendar, "slotTypeRepository", slotTypeRepository());
+		ReflectionTestUtils.setField(calendar, "horizonDays", 60);
+		ReflectionTestUtils.setField(calendar, "ttlSeconds", 600L);
+		priceTable = new PriceTableService();
+		ReflectionTestUtils.setField(priceTable, "priceBySlotRepository", priceBySlotRepository());
+		ReflectionTestUtils.setField(priceTable, "operatingCalendarService", calendar);
+		ReflectionTestUtils.setField(priceTable, "ttlSeconds", 600L);
+	}
+
+	@Test
+	void normalDay() {
+		assertEquals(CommonConstants.PRICE_DEFAULT, quote(NORMAL_DAY, "07:55"));
+		assertEquals(100000d, quote(NORMAL_DAY, "08:00"));
+		assertEquals(120000d, quote(NORMAL_DAY, "12:00"));
+		assertEquals(130000d, quote(NORMAL_DAY, "17:30"));
+		assertEquals(CommonConstants.PRICE_DEFAULT, quote(NORMAL_DAY, "18:00"));
+		assertMatchesBaseline(NORMAL_DAY);
+	}
+
+	@Test
+	void weekendDay() {
+		assertEquals(150000d, quote(WEEKEND_DAY, "08:00"));
+		assertEquals(150000d, quote(WEEKEND_DAY, "17:55"));
+		assertEquals(CommonConstants.PRICE_DEFAULT, quote(WEEKEND_DAY, "18:00"));
+		assertMatchesBaseline(WEEKEND_DAY);
+	}
+
+	@Test
+	void specialDay() {
+		assertEquals(100000d, quote(SPECIAL_DAY, "09:55"));
+		assertEquals(300000d, quote(SPECIAL_DAY, "10:00"));
+		assertEquals(300000d, quote(SPECIAL_DAY, "13:30"));
+		assertEquals(310000d, quote(SPECIAL_DAY, "14:00"));
+		assertEquals(120000d, quote(SPECIAL_DAY, "15:00"));
+		assertMatchesBaseline(SPECIAL_DAY);
+	}
+
+	@Test
+	void specialDayOnAWeekend() {
+		assertEquals(150000d, quote(SPECIAL_WEEKEND_DAY, "08:55"));
+		assertEquals(250000d, quote(SPECIAL_WEEKEND_DAY, "09:00"));
+		assertEquals(150000d, quote(SPECIAL_WEEKEND_DAY, "11:00"));
+		assertMatchesBaseline(SPECIAL_WEEKEND_DAY);
+	}
+
+	private double quote(LocalDate date, String time) {
+		return priceTable.quote(FACILITY_ID, date, LocalTime.parse(time));
+	}
+
+	/** Compares every bookable start time of the day with the baseline lookup. */
+	private void assertMatchesBaseline(LocalDate date) {
+		for (LocalTime time = LocalTime.MIDNIGHT;; time = time.plusMinutes(5)) {
+			assertEquals(baselinePrice(rules, time, FACILITY_ID, date), priceTable.quote(FACILITY_ID, date, time), date + " " + time);
+			if (time.equals(LocalTime.of(23, 55))) {
+				return;
+			}
+		}
+	}
+
+	/** OrderService.getPrice before the price tables, returning the price instead of its text. */
+	private static double baselinePrice(List<PriceBySlot> priceBySlots, LocalTime time, String facilityId, LocalDate date) {
+		double priceNormal = CommonConstants.PRICE_DEFAULT;
+		for (PriceBySlot priceBySlot : priceBySlots) {
+			if (!time.isBefore(priceBySlot.getStartTime()) && time.isBefore(priceBySlot.getEndTime())
+					&& priceBySlot.getFacility().getId().equals(facilityId)) {
+				if (priceBySlot.getConditionPrice().getSpecialDate() != null
+						&& date.getDayOfMonth() == priceBySlot.getConditionPrice().getSpecialDate().getDayOfMonth()
+						&& date.getMonthValue() == priceBySlot.getConditionPrice().getSpecialDate().getMonthValue()) {
+					return priceBySlot.getPrice();
+				}
+				if ((date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY)
+						&& priceBySlot.getConditionPrice().getId().equalsIgnoreCase(ConditionPrice.WEEKEND.name())) {
+					priceNormal = priceBySlot.getPrice();
+				} else if ((date.getDayOfWeek() != DayOfWeek.SATURDAY && date.getDayOfWeek() != DayOfWeek.SUNDAY)
+						&& priceBySlot.getConditionPrice().getId().equalsIgnoreCase(ConditionPrice.NORMAL.name())) {
+					priceNormal = priceBySlot.getPrice();
+				}
+			}
+		}
+		return priceNormal;
+	}
+
+	private PriceBySlotRepository priceBySlotRepository() {
+		return (PriceBySlotRepository) Proxy.newProxyInstance(PriceBySlotRepository.class.getClassLoader(),
+				new Class<?>[] { PriceBySlotRepository.class }, (proxy, method, args) -> {
+					if ("findAllByActive".equals(method.getName())) {
+						return rules;
+					}
+					throw new UnsupportedOperationException("PriceBySlotRepository." + method.getName() + " is not faked");
+				});
+	}
+
+	private SlotTypeRepository slotTypeRepository() {
+		return (SlotTypeRepository) Proxy.newProxyInstance(SlotTypeRepository.class.getClassLoader(),
+				new Class<?>[] { SlotTypeRepository.class }, (proxy, method, args) -> {
+					if ("getSlotTypeBySpecialDate".equals(method.getName())) {
+						List<SlotType> matches = new ArrayList<>();
+						for (SlotType specialDate : specialDates) {
+							if (specialDate.getSpecialDate().getDayOfMonth() == (Integer) args[0]
+									&& specialDate.getSpecialDate().getMonthValue() == (Integer) args[1]) {
+								matches.add(specialDate);
+							}
+						}
+						return matches;
+					}
+					throw new UnsupportedOperationException("SlotTypeRepository." + method.getName() + " is not faked");
+				});
+	}
+
+	private static TimeConfigRepository timeConfigRepository() {
+		return (TimeConfigRepository) Proxy.newProxyInstance(TimeConfigRepository.class.getClassLoader(),
+				new Class<?>[] { TimeConfigRepository.class }, (proxy, method, args) -> {
+					if ("getTimeByDate".equals(method.getName()) || "findAllByTypeAndActive".equals(method.getName())) {
+						return Collections.emptyList();
+					}
+					throw new UnsupportedOperationException("TimeConfigRepository." + method.getName() + " is not faked");
+				});
+	}
+
+	private static Facility facility(String id) {
+		Facility facility = new Facility();
+		facility.setId(id);
+		return facility;
+	}
+
+	private static SlotType slotType(String id, LocalDate specialDate) {
+		SlotType slotType = new SlotType();
+		slotType.setId(id);
+		slotType.setSpecialDate(specialDate);
+		return slotType;
+	}
+
+	private static PriceBySlot rule(Facility facility, SlotType conditionPrice, String start, String end, double price) {
+		PriceBySlot rule = new PriceBySlot();
+		rule.setFacility(facility);
+		rule.setConditionPrice(conditionPrice);
+		rule.setStartTime(LocalTime.parse(start));
+		rule.setEndTime(LocalTime.parse(end));
+		rule.setPrice(price);
+		return rule;
+	}
+}
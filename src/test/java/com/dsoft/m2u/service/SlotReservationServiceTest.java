@@ -0,0 +1,329 @@
+package com.dsoft.m2u.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.dsoft.m2u.common.CommonConstants;
+import com.dsoft.m2u.domain.OrderStatus;
+import com.dsoft.m2u.domain.Slot;
+import com.dsoft.m2u.domain.SlotClaim;
+import com.dsoft.m2u.exception.ResourceInvalidInputException;
+import com.dsoft.m2u.repository.SlotClaimRepository;
+import com.dsoft.m2u.repository.SlotRepository;
+
+/**
+ * Races on the same 5-minute unit, on one node and across nodes that share
+ * the slot_claim table. The table is an in-memory map that enforces the
+ * unique key the way the database does; bitmaps start empty, as if nothing
+ * was committed yet.
+ */
+class SlotReservationServiceTest {
+
+	private static final String FACILITY_ID = "facility-1";
+
+	private static final LocalDate DATE = LocalDate.now().plusDays(1);
+
+	private static final int ROUNDS = 200;
+
+	private ClaimTable claimTable;
+
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setUp() {
+		claimTable = new ClaimTable();
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void twoBookersOnOneNodeGetTheUnitOnce() throws Exception {
+		SlotReservationService node = node();
+		for (int round = 0; round < ROUNDS; round++) {
+			List<Slot> slots = slotsAt(round);
+			String orderA = "a-" + round;
+			String orderB = "b-" + round;
+			List<Boolean> results = race(() -> book(node, orderA, slots), () -> book(node, orderB, slots));
+			assertEquals(1, results.stream().filter(Boolean::booleanValue).count(), "round " + round);
+			assertEquals(1, claimTable.holdersOf(round).size(), "round " + round);
+		}
+	}
+
+	@Test
+	void rolledBackClaimFreesTheBits() {
+		SlotReservationService node = node();
+		List<Slot> slots = slotsAt(0);
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			node.claim(FACILITY_ID, slots);
+			assertTrue(isBooked(node, 0));
+			completeTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		assertFalse(isBooked(node, 0));
+		node.reserve(FACILITY_ID, "next-order", slots);
+		assertTrue(isBooked(node, 0));
+	}
+
+	@Test
+	void uniqueKeyDecidesBetweenNodes() throws Exception {
+		SlotReservationService nodeA = node();
+		SlotReservationService nodeB = node();
+		for (int round = 0; round < ROUNDS; round++) {
+			List<Slot> slots = slotsAt(round);
+			String orderA = "a-" + round;
+			String orderB = "b-" + round;
+			List<Boolean> results = race(() -> bookInTransaction(nodeA, orderA, slots), () -> bookInTransaction(nodeB, orderB, slots));
+			assertEquals(1, results.stream().filter(Boolean::booleanValue).count(), "round " + round);
+			String winner = results.get(0) ? orderA : orderB;
+			assertEquals(Collections.singleton(winner), claimTable.holdersOf(round), "round " + round);
+			// the loser rolled back; only the winner's node still has the bits
+			assertEquals(results.get(0), isBooked(nodeA, round));
+			assertEquals(results.get(1), isBooked(nodeB, round));
+		}
+	}
+
+	@Test
+	void staleClaimsDoNotBlockRebooking() {
+		SlotReservationService node = node();
+		claimTable.orders.put("cancelled", new OrderRow(true, OrderStatus.CANCELLED, new Date()));
+		claimTable.orders.put("expired", new OrderRow(true, OrderStatus.NEW, new Date(System.currentTimeMillis()
+				- TimeUnit.MINUTES.toMillis(CommonConstants.SLOT_TIME_CONDITION + 1))));
+		claimTable.orders.put("paid", new OrderRow(true, OrderStatus.PAID, new Date()));
+		claimTable.insert(Collections.singletonList(new SlotClaim(FACILITY_ID, DATE, 0, "cancelled")));
+		claimTable.insert(Collections.singletonList(new SlotClaim(FACILITY_ID, DATE, 1, "expired")));
+		claimTable.insert(Collections.singletonList(new SlotClaim(FACILITY_ID, DATE, 2, "paid")));
+
+		node.reserve(FACILITY_ID, "rebook-0", slotsAt(0));
+		node.reserve(FACILITY_ID, "rebook-1", slotsAt(1));
+		assertThrows(ResourceInvalidInputException.class, () -> node.persist(FACILITY_ID, "rebook-2", slotsAt(2)));
+		assertEquals(Collections.singleton("rebook-0"), claimTable.holdersOf(0));
+		assertEquals(Collections.singleton("rebook-1"), claimTable.holdersOf(1));
+		assertEquals(Collections.singleton("paid"), claimTable.holdersOf(2));
+	}
+
+	private SlotReservationService node() {
+		SlotAvailabilityIndex index = new SlotAvailabilityIndex();
+		ReflectionTestUtils.setField(index, "slotRepository", emptySlotRepository());
+		ApplicationEventPublisher noEvents = event -> {
+			// nothing listens in the test
+		};
+		ReflectionTestUtils.setField(index, "eventPublisher", noEvents);
+		ReflectionTestUtils.setField(index, "transactionManager", new NoTransactionManager());
+		ReflectionTestUtils.setField(index, "ttlSeconds", 600L);
+		index.init();
+		SlotReservationService service = new SlotReservationService();
+		ReflectionTestUtils.setField(service, "slotAvailabilityIndex", index);
+		ReflectionTestUtils.setField(service, "slotClaimRepository", claimTable.repository());
+		return service;
+	}
+
+	/** One 5-minute slot per round, so rounds do not see each other's bookings. */
+	private static List<Slot> slotsAt(int unit) {
+		LocalTime start = LocalTime.MIDNIGHT.plusMinutes((long) unit * SlotBitmap.UNIT_MINUTES);
+		return Collections.singletonList(new Slot(start, start.plusMinutes(SlotBitmap.UNIT_MINUTES), DATE, true));
+	}
+
+	private static boolean isBooked(SlotReservationService node, int unit) {
+		SlotAvailabilityIndex index = (SlotAvailabilityIndex) ReflectionTestUtils.getField(node, "slotAvailabilityIndex");
+		return index.get(FACILITY_ID, DATE).isBooked(unit);
+	}
+
+	private static boolean book(SlotReservationService node, String orderId, List<Slot> slots) {
+		try {
+			node.reserve(FACILITY_ID, orderId, slots);
+			return true;
+		} catch (ResourceInvalidInputException e) {
+			return false;
+		}
+	}
+
+	/** Books inside a simulated order transaction that commits on success and rolls back on a conflict. */
+	private static boolean bookInTransaction(SlotReservationService node, String orderId, List<Slot> slots) {
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			boolean booked = book(node, orderId, slots);
+			completeTransaction(booked ? TransactionSynchronization.STATUS_COMMITTED : TransactionSynchronization.STATUS_ROLLED_BACK);
+			return booked;
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	private static void completeTransaction(int status) {
+		List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+		if (status == TransactionSynchronization.STATUS_COMMITTED) {
+			synchronizations.forEach(TransactionSynchronization::afterCommit);
+		}
+		synchronizations.forEach(synchronization -> synchronization.afterCompletion(status));
+	}
+
+	/** Starts both bookers together and returns their results in order. */
+	private List<Boolean> race(Callable<Boolean> first, Callable<Boolean> second) throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		Future<Boolean> a = executor.submit(() -> {
+			start.await();
+			return first.call();
+		});
+		Future<Boolean> b = executor.submit(() -> {
+			start.await();
+			return second.call();
+		});
+		start.countDown();
+		List<Boolean> results = new ArrayList<>(2);
+		results.add(a.get(10, TimeUnit.SECONDS));
+		results.add(b.get(10, TimeUnit.SECONDS));
+		return results;
+	}
+
+	private static SlotRepository emptySlotRepository() {
+		return (SlotRepository) Proxy.newProxyInstance(SlotRepository.class.getClassLoader(), new Class<?>[] { SlotRepository.class },
+				(proxy, method, args) -> {
+					if ("findByOrderFacilityIdAndActiveAndDateDisplayAndOrderStatusIn".equals(method.getName())) {
+						return Collections.emptyList();
+					}
+					throw new UnsupportedOperationException("SlotRepository." + method.getName() + " is not faked");
+				});
+	}
+
+	private static final class OrderRow {
+
+		private final boolean active;
+		private final OrderStatus status;
+		private final Date createdAt;
+
+		private OrderRow(boolean active, OrderStatus status, Date createdAt) {
+			this.active = active;
+			this.status = status;
+			this.createdAt = createdAt;
+		}
+	}
+
+	/** slot_claim with its unique key on (facility_id, date_display, unit), and the orders the stale-claim delete reads. */
+	private static final class ClaimTable {
+
+		private final Map<String, SlotClaim> rows = new HashMap<>();
+
+		private final Map<String, OrderRow> orders = new HashMap<>();
+
+		private static String key(String facilityId, LocalDate date, int unit) {
+			return facilityId + ":" + date + ":" + unit;
+		}
+
+		synchronized void insert(Collection<SlotClaim> claims) {
+			for (SlotClaim claim : claims) {
+				SlotClaim held = rows.get(key(claim.getFacilityId(), claim.getDateDisplay(), claim.getUnit()));
+				if (held != null && !held.getOrderId().equals(claim.getOrderId())) {
+					throw new DataIntegrityViolationException("uk_slot_claim_unit");
+				}
+			}
+			for (SlotClaim claim : claims) {
+				rows.put(key(claim.getFacilityId(), claim.getDateDisplay(), claim.getUnit()), claim);
+			}
+		}
+
+		synchronized Set<String> holdersOf(int unit) {
+			SlotClaim claim = rows.get(key(FACILITY_ID, DATE, unit));
+			return claim == null ? Collections.emptySet() : Collections.singleton(claim.getOrderId());
+		}
+
+		@SuppressWarnings("unchecked")
+		synchronized int deleteStaleOnUnits(Object[] args) {
+			Collection<Integer> units = (Collection<Integer>) args[2];
+			Collection<OrderStatus> statuses = (Collection<OrderStatus>) args[4];
+			Date expiredBefore = (Date) args[6];
+			int deleted = 0;
+			for (Integer unit : units) {
+				String key = key((String) args[0], (LocalDate) args[1], unit);
+				SlotClaim claim = rows.get(key);
+				if (claim == null || claim.getOrderId().equals(args[3])) {
+					continue;
+				}
+				// orders the test did not register are live bookings of the other bookers
+				OrderRow order = orders.getOrDefault(claim.getOrderId(), new OrderRow(true, OrderStatus.NEW, new Date()));
+				boolean holds = order.active && statuses.contains(order.status)
+						&& (order.status != args[5] || !order.createdAt.before(expiredBefore));
+				if (!holds) {
+					rows.remove(key);
+					deleted++;
+				}
+			}
+			return deleted;
+		}
+
+		@SuppressWarnings("unchecked")
+		SlotClaimRepository repository() {
+			return (SlotClaimRepository) Proxy.newProxyInstance(SlotClaimRepository.class.getClassLoader(),
+					new Class<?>[] { SlotClaimRepository.class }, (proxy, method, args) -> {
+						switch (method.getName()) {
+						case "saveAll":
+							insert((Collection<SlotClaim>) args[0]);
+							return args[0];
+						case "flush":
+							return null;
+						case "deleteStaleOnUnits":
+							return deleteStaleOnUnits(args);
+						default:
+							throw new UnsupportedOperationException("SlotClaimRepository." + method.getName() + " is not faked");
+						}
+					});
+		}
+	}
+
+	/** The fakes need no transaction; lets the index's load template run as it is. */
+	private static final class NoTransactionManager implements PlatformTransactionManager {
+
+		@Override
+		public TransactionStatus getTransaction(TransactionDefinition definition) {
+			return new SimpleTransactionStatus();
+		}
+
+		@Override
+		public void commit(TransactionStatus status) {
+			// nothing to commit
+		}
+
+		@Override
+		public void rollback(TransactionStatus status) {
+			// nothing to roll back
+		}
+	}
+}